@@ -1,8 +1,15 @@
 package com.edu.pollingquery;
 
 import com.edu.pollingquery.config.ActionBoundConfigurer;
+import com.edu.pollingquery.config.PollingQueryProperties;
 import com.edu.pollingquery.context.BoundRelationContextHolder;
+import com.edu.pollingquery.handler.window.AdaptiveCoalescingWindowStrategy;
+import com.edu.pollingquery.handler.window.CoalescingWindowStrategy;
+import com.edu.pollingquery.handler.window.FixedCoalescingWindowStrategy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
@@ -14,10 +21,25 @@ import org.springframework.context.annotation.Configuration;
  */
 @ComponentScan
 @Configuration
+@EnableConfigurationProperties(PollingQueryProperties.class)
 public class PollingQueryConfiguration {
 
     @Autowired
     protected void initActionBound(BoundRelationContextHolder boundRelationContext, ActionBoundConfigurer config){
         boundRelationContext.initActionBound(config.actionBoundSupplier());
     }
+
+    /**
+     * 默认的请求合并等待策略
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public CoalescingWindowStrategy coalescingWindowStrategy(PollingQueryProperties properties){
+        PollingQueryProperties.Coalescing coalescing = properties.getCoalescing();
+        if(coalescing.isAdaptive()){
+            return new AdaptiveCoalescingWindowStrategy(coalescing.getMaxWindow().toMillis(),
+                    coalescing.getLatencyBudget().toMillis());
+        }
+        return new FixedCoalescingWindowStrategy(coalescing.getFixedWindow().toMillis());
+    }
 }
@@ -0,0 +1,181 @@
+package com.edu.pollingquery.cache;
+
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.ActionEvictionListener;
+import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ResultWrapper;
+import com.edu.pollingquery.model.ViewKey;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 动作查询结果短期缓存 按动作编码保存最近一轮的查询结果
+ * 请求到达时如果缓存结果的时间在视图可以容忍的过期时间内，直接使用缓存结果返回，无需再次执行查询
+ * 过期可用模式和指定结果版本的请求使用的最近结果单独保存，不受缓存容量和过期时间限制，动作回收时清除
+ *
+ * @author jcb
+ * @since 2021/5/28
+ */
+@Slf4j
+@Component
+public class ActionResultCache<T> implements ActionEvictionListener {
+
+    private final PollingQueryProperties.Cache config;
+
+    private final Cache<ActionKey, ResultWrapper<T>> cache;
+
+    /**
+     * 需要最近结果的动作（过期可用模式或指定结果版本的请求） 这些动作的最近结果保存在最近结果映射中
+     */
+    private final Set<ActionKey> revalidateActions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 动作最近一轮的查询结果
+     */
+    private final Map<ActionKey, ResultWrapper<T>> LATEST_RESULT_MAP = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder latestHitCount = new LongAdder();
+
+    private final LongAdder latestMissCount = new LongAdder();
+
+    public ActionResultCache(PollingQueryProperties properties) {
+        this.config = properties.getCache();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(0L, config.getMaximumSize()))
+                .expireAfterWrite(config.getExpireAfterWrite().toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 是否开启结果缓存
+     * @return 是否开启
+     */
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * 保存查询结果 只保留序号更大的结果
+     * @param resultWrapper 查询结果
+     */
+    public void put(ResultWrapper<T> resultWrapper) {
+        if(resultWrapper.getActionCode() == null || resultWrapper.getResult() == null){
+            return;
+        }
+        if(revalidateActions.contains(resultWrapper.getActionCode())){
+            LATEST_RESULT_MAP.merge(resultWrapper.getActionCode(), resultWrapper, ActionResultCache::newer);
+        }
+        if(isEnabled()){
+            cache.asMap().merge(resultWrapper.getActionCode(), resultWrapper, ActionResultCache::newer);
+        }
+    }
+
+    private static <T> ResultWrapper<T> newer(ResultWrapper<T> current, ResultWrapper<T> update) {
+        return update.getSequence() > current.getSequence() ? update : current;
+    }
+
+    /**
+     * 获取视图可以使用的缓存结果
+     * @param actionCode 动作编码
+     * @param viewKey 视图编码（已经根据参数组装）
+     * @param requestHolder 请求
+     * @return 未过期的缓存结果，没有时返回null
+     */
+    public ResultWrapper<T> getIfFresh(ActionKey actionCode, ViewKey viewKey, BoundResultRequestContextHolder<T> requestHolder) {
+        if(!isEnabled()){
+            return null;
+        }
+        long maxStaleness = resolveMaxStaleness(viewKey, requestHolder);
+        if(maxStaleness <= 0L){
+            return null;
+        }
+        ResultWrapper<T> resultWrapper = cache.getIfPresent(actionCode);
+        if(resultWrapper != null && System.currentTimeMillis() - resultWrapper.getStartTime() <= maxStaleness){
+            hitCount.increment();
+            return resultWrapper;
+        }
+        missCount.increment();
+        return null;
+    }
+
+    /**
+     * 获取动作最近一轮的查询结果，不判断是否过期 用于过期可用模式和指定结果版本的请求，调用后该动作的最近结果会被保存
+     * @param actionCode 动作编码
+     * @return 最近一轮的查询结果，没有时返回null
+     */
+    public ResultWrapper<T> getLatest(ActionKey actionCode) {
+        revalidateActions.add(actionCode);
+        ResultWrapper<T> resultWrapper = LATEST_RESULT_MAP.get(actionCode);
+        if(resultWrapper != null){
+            latestHitCount.increment();
+        }else{
+            latestMissCount.increment();
+        }
+        return resultWrapper;
+    }
+
+    /**
+     * 视图可以容忍的结果过期时间，请求指定时优先使用请求的配置
+     * @param viewKey 视图编码
+     * @param requestHolder 请求
+     * @return 过期时间（毫秒）
+     */
+    private long resolveMaxStaleness(ViewKey viewKey, BoundResultRequestContextHolder<T> requestHolder) {
+        if(requestHolder.getMaxStaleness() != null){
+            return requestHolder.getMaxStaleness();
+        }
+        Duration maxStaleness = config.getViewMaxStaleness().get(viewKey.getCode());
+        return (maxStaleness != null ? maxStaleness : config.getDefaultMaxStaleness()).toMillis();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getLatestHitCount() {
+        return latestHitCount.sum();
+    }
+
+    public long getLatestMissCount() {
+        return latestMissCount.sum();
+    }
+
+    public long getLatestSize() {
+        return LATEST_RESULT_MAP.size();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public void onActionEvicted(ActionKey actionCode, Set<ViewKey> viewCodes) {
+        revalidateActions.remove(actionCode);
+        LATEST_RESULT_MAP.remove(actionCode);
+        cache.invalidate(actionCode);
+    }
+
+}
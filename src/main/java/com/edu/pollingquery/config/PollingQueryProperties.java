@@ -0,0 +1,588 @@
+package com.edu.pollingquery.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 轮询查询配置项
+ *
+ * @author jcb
+ * @since 2021/5/12
+ */
+@ConfigurationProperties(prefix = "polling-query")
+public class PollingQueryProperties {
+
+    /**
+     * 空闲绑定关系回收配置
+     */
+    private final Eviction eviction = new Eviction();
+
+    /**
+     * 请求合并等待配置
+     */
+    private final Coalescing coalescing = new Coalescing();
+
+    /**
+     * 查询执行配置
+     */
+    private final Execution execution = new Execution();
+
+    /**
+     * 查询结果交接配置
+     */
+    private final Handoff handoff = new Handoff();
+
+    /**
+     * 结果派发配置
+     */
+    private final Dispatch dispatch = new Dispatch();
+
+    /**
+     * 查询结果缓存配置
+     */
+    private final Cache cache = new Cache();
+
+    /**
+     * 过期可用模式配置
+     */
+    private final StaleWhileRevalidate staleWhileRevalidate = new StaleWhileRevalidate();
+
+    /**
+     * 热点动作定时刷新配置
+     */
+    private final ScheduledRefresh scheduledRefresh = new ScheduledRefresh();
+
+    /**
+     * 结果版本配置
+     */
+    private final Versioning versioning = new Versioning();
+
+    /**
+     * 共享结果编码配置
+     */
+    private final Encoding encoding = new Encoding();
+
+    /**
+     * 推送订阅配置
+     */
+    private final Sse sse = new Sse();
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public Handoff getHandoff() {
+        return handoff;
+    }
+
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public StaleWhileRevalidate getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public ScheduledRefresh getScheduledRefresh() {
+        return scheduledRefresh;
+    }
+
+    public Versioning getVersioning() {
+        return versioning;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public Sse getSse() {
+        return sse;
+    }
+
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * 空闲绑定关系回收配置 动作在空闲时间内没有新的请求且没有待处理请求时，回收其绑定关系、视图队列和线程池
+     */
+    public static class Eviction {
+
+        /**
+         * 是否开启空闲回收
+         */
+        private boolean enabled = true;
+
+        /**
+         * 动作空闲多久后回收
+         */
+        private Duration idleTimeout = Duration.ofMinutes(5);
+
+        /**
+         * 空闲检查间隔
+         */
+        private Duration checkInterval = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public Duration getCheckInterval() {
+            return checkInterval;
+        }
+
+        public void setCheckInterval(Duration checkInterval) {
+            this.checkInterval = checkInterval;
+        }
+    }
+
+    /**
+     * 查询执行配置 所有动作共享一个有界的执行线程池
+     */
+    public static class Execution {
+
+        /**
+         * 共享执行线程池的线程数（全局并发上限），查询阻塞于IO时需按后端的并发能力配置
+         */
+        private int parallelism = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+        /**
+         * 单个动作最大并发执行数
+         */
+        private int maxConcurrencyPerAction = 1;
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getMaxConcurrencyPerAction() {
+            return maxConcurrencyPerAction;
+        }
+
+        public void setMaxConcurrencyPerAction(int maxConcurrencyPerAction) {
+            this.maxConcurrencyPerAction = maxConcurrencyPerAction;
+        }
+    }
+
+    /**
+     * 查询结果交接配置 查询结果按动作编码分片交给派发线程，每个分片一个有界队列和一个派发线程
+     */
+    public static class Handoff {
+
+        /**
+         * 分片数量（派发线程数）
+         */
+        private int shards = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * 每个分片的队列容量，队列已满时由查询线程直接派发
+         */
+        private int capacity = 1024;
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * 结果派发配置 所有动作共享一个结果派发线程池，每个动作同时最多一个派发任务
+     */
+    public static class Dispatch {
+
+        /**
+         * 结果派发线程数 经结果交接管道（handoff）提交的结果由分片线程直接派发，该线程池只用于其他方式提交的结果
+         */
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * 结果版本未变化时是否复用相同加工分组标识（默认为处理器类型、用户信息）的加工结果 默认关闭，
+         * 开启前需确认处理器的输出只依赖这些信息，依赖时间或每轮规则的处理器开启后输出会保持到结果版本变化
+         */
+        private boolean reuseProcessedResult = false;
+
+        /**
+         * 每个动作最多保留的加工结果数量
+         */
+        private int maxProcessedResults = 1024;
+
+        /**
+         * 结果加工并行度，不大于1时在派发线程中依次加工
+         */
+        private int processingParallelism = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * 一轮派发的加工分组数达到该值时并行加工，分组较少时并行的调度开销大于收益
+         */
+        private int parallelThreshold = 16;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public boolean isReuseProcessedResult() {
+            return reuseProcessedResult;
+        }
+
+        public void setReuseProcessedResult(boolean reuseProcessedResult) {
+            this.reuseProcessedResult = reuseProcessedResult;
+        }
+
+        public int getMaxProcessedResults() {
+            return maxProcessedResults;
+        }
+
+        public void setMaxProcessedResults(int maxProcessedResults) {
+            this.maxProcessedResults = maxProcessedResults;
+        }
+
+        public int getProcessingParallelism() {
+            return processingParallelism;
+        }
+
+        public void setProcessingParallelism(int processingParallelism) {
+            this.processingParallelism = processingParallelism;
+        }
+
+        public int getParallelThreshold() {
+            return parallelThreshold;
+        }
+
+        public void setParallelThreshold(int parallelThreshold) {
+            this.parallelThreshold = parallelThreshold;
+        }
+    }
+
+    /**
+     * 查询结果缓存配置 默认关闭，开启后视图在可以容忍的过期时间内直接使用最近一轮的查询结果
+     */
+    public static class Cache {
+
+        /**
+         * 是否开启结果缓存
+         */
+        private boolean enabled = false;
+
+        /**
+         * 最多缓存的动作数量
+         */
+        private long maximumSize = 1000;
+
+        /**
+         * 缓存结果写入后的最长保留时间
+         */
+        private Duration expireAfterWrite = Duration.ofSeconds(5);
+
+        /**
+         * 视图默认可以容忍的结果过期时间，为0时不使用缓存
+         */
+        private Duration defaultMaxStaleness = Duration.ZERO;
+
+        /**
+         * 各视图可以容忍的结果过期时间，key为视图编码（不含参数）
+         */
+        private Map<String, Duration> viewMaxStaleness = new HashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
+
+        public Duration getDefaultMaxStaleness() {
+            return defaultMaxStaleness;
+        }
+
+        public void setDefaultMaxStaleness(Duration defaultMaxStaleness) {
+            this.defaultMaxStaleness = defaultMaxStaleness;
+        }
+
+        public Map<String, Duration> getViewMaxStaleness() {
+            return viewMaxStaleness;
+        }
+
+        public void setViewMaxStaleness(Map<String, Duration> viewMaxStaleness) {
+            this.viewMaxStaleness = viewMaxStaleness;
+        }
+    }
+
+    /**
+     * 过期可用模式配置 请求立即使用最近一轮的查询结果返回，结果超过刷新时间时在后台刷新
+     */
+    public static class StaleWhileRevalidate {
+
+        /**
+         * 结果超过该时间后触发后台刷新
+         */
+        private Duration refreshAfter = Duration.ofSeconds(1);
+
+        public Duration getRefreshAfter() {
+            return refreshAfter;
+        }
+
+        public void setRefreshAfter(Duration refreshAfter) {
+            this.refreshAfter = refreshAfter;
+        }
+    }
+
+    /**
+     * 热点动作定时刷新配置 配置的动作或请求到达速率超过阈值的动作按固定间隔执行查询，请求不再触发查询
+     */
+    public static class ScheduledRefresh {
+
+        /**
+         * 固定定时刷新的动作编码（不含参数）
+         */
+        private Set<String> actions = new HashSet<>();
+
+        /**
+         * 自动开启定时刷新的请求到达速率阈值（每秒请求数），为0时不自动开启
+         */
+        private double hotArrivalRate = 0D;
+
+        /**
+         * 定时刷新间隔
+         */
+        private Duration interval = Duration.ofMillis(500);
+
+        /**
+         * 超过该时间没有新的请求时停止定时刷新
+         */
+        private Duration idleTimeout = Duration.ofSeconds(30);
+
+        public Set<String> getActions() {
+            return actions;
+        }
+
+        public void setActions(Set<String> actions) {
+            this.actions = actions;
+        }
+
+        public double getHotArrivalRate() {
+            return hotArrivalRate;
+        }
+
+        public void setHotArrivalRate(double hotArrivalRate) {
+            this.hotArrivalRate = hotArrivalRate;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+    }
+
+    /**
+     * 结果版本配置 请求指定已获取的结果版本时，结果版本未变化的请求重新入队等待
+     */
+    public static class Versioning {
+
+        /**
+         * 结果版本未变化时再次查询的间隔
+         */
+        private Duration recheckInterval = Duration.ofSeconds(1);
+
+        public Duration getRecheckInterval() {
+            return recheckInterval;
+        }
+
+        public void setRecheckInterval(Duration recheckInterval) {
+            this.recheckInterval = recheckInterval;
+        }
+    }
+
+    /**
+     * 共享结果编码配置 请求使用一次编码模式时，同一个结果对象只序列化一次
+     */
+    public static class Encoding {
+
+        /**
+         * 最多缓存的编码结果数量
+         */
+        private long maximumSize = 256;
+
+        /**
+         * 编码结果最后一次使用后的保留时间
+         */
+        private Duration expireAfterAccess = Duration.ofSeconds(10);
+
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public Duration getExpireAfterAccess() {
+            return expireAfterAccess;
+        }
+
+        public void setExpireAfterAccess(Duration expireAfterAccess) {
+            this.expireAfterAccess = expireAfterAccess;
+        }
+    }
+
+    /**
+     * 推送订阅配置
+     */
+    public static class Sse {
+
+        /**
+         * 订阅连接超时时间，超时后客户端需重新订阅
+         */
+        private Duration timeout = Duration.ofMinutes(30);
+
+        /**
+         * 推送线程数 推送为阻塞的网络IO，推送较慢的订阅只占用推送线程
+         */
+        private int pushThreads = Runtime.getRuntime().availableProcessors();
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getPushThreads() {
+            return pushThreads;
+        }
+
+        public void setPushThreads(int pushThreads) {
+            this.pushThreads = pushThreads;
+        }
+    }
+
+    /**
+     * 请求合并等待配置 查询执行前等待更多请求一同处理
+     */
+    public static class Coalescing {
+
+        /**
+         * 是否根据请求到达速率和查询耗时自适应计算等待时间，关闭时使用固定等待时间
+         */
+        private boolean adaptive = true;
+
+        /**
+         * 固定等待时间
+         */
+        private Duration fixedWindow = Duration.ofMillis(10);
+
+        /**
+         * 自适应时的最大等待时间
+         */
+        private Duration maxWindow = Duration.ofMillis(50);
+
+        /**
+         * 自适应时的延迟预算 请求等待和查询执行的总耗时期望不超过该值
+         */
+        private Duration latencyBudget = Duration.ofMillis(100);
+
+        public boolean isAdaptive() {
+            return adaptive;
+        }
+
+        public void setAdaptive(boolean adaptive) {
+            this.adaptive = adaptive;
+        }
+
+        public Duration getFixedWindow() {
+            return fixedWindow;
+        }
+
+        public void setFixedWindow(Duration fixedWindow) {
+            this.fixedWindow = fixedWindow;
+        }
+
+        public Duration getMaxWindow() {
+            return maxWindow;
+        }
+
+        public void setMaxWindow(Duration maxWindow) {
+            this.maxWindow = maxWindow;
+        }
+
+        public Duration getLatencyBudget() {
+            return latencyBudget;
+        }
+
+        public void setLatencyBudget(Duration latencyBudget) {
+            this.latencyBudget = latencyBudget;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.edu.pollingquery.context;
+
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ViewKey;
+
+import java.util.Set;
+
+/**
+ * 空闲动作回收监听 用于释放动作和视图关联的线程池等资源
+ *
+ * @author jcb
+ * @since 2021/5/12
+ */
+public interface ActionEvictionListener {
+
+    /**
+     * 动作绑定关系被回收后回调 回调时该动作的绑定关系已经移除，新的请求会重新建立绑定
+     * @param actionCode 被回收的动作编码
+     * @param viewCodes 动作绑定的视图编码
+     */
+    void onActionEvicted(ActionKey actionCode, Set<ViewKey> viewCodes);
+}
@@ -0,0 +1,104 @@
+package com.edu.pollingquery.context;
+
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.VersionedResult;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 动作运行状态 记录动作最近活跃时间以及单调递增的请求序号
+ * 请求入队时获取新的序号，查询开始时记录当前序号，序号不大于查询序号的请求都可以使用该次查询结果
+ * 同时记录查询结果版本，结果变化时版本增大
+ *
+ * @author jcb
+ * @since 2021/5/14
+ */
+public class ActionState {
+
+    private final ActionKey actionCode;
+
+    /**
+     * 最近活跃时间（毫秒）
+     */
+    private volatile long lastActiveTime;
+
+    /**
+     * 请求序号
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 查询结果版本 以创建时间为初始值，动作被回收后重新创建时版本仍然大于此前的版本
+     */
+    private long resultVersion;
+
+    /**
+     * 最近一次的查询结果，用于判断结果是否变化
+     */
+    private Object lastResult;
+
+    public ActionState(ActionKey actionCode) {
+        this.actionCode = actionCode;
+        this.lastActiveTime = System.currentTimeMillis();
+        this.resultVersion = this.lastActiveTime;
+    }
+
+    public ActionKey getActionCode() {
+        return actionCode;
+    }
+
+    public long getLastActiveTime() {
+        return lastActiveTime;
+    }
+
+    /**
+     * 刷新最近活跃时间
+     */
+    public void touch() {
+        this.lastActiveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 为新请求分配序号
+     * @return 请求序号
+     */
+    public long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * 获取当前序号 作为查询的轮次序号
+     * @return 当前序号
+     */
+    public long currentSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * 根据查询结果计算结果版本 结果实现了{@link VersionedResult}时使用其版本，否则结果与上次不相等时版本加一
+     * 查询失败（结果为空）时沿用当前版本
+     * @param result 查询结果
+     * @return 结果版本
+     */
+    public synchronized long resolveResultVersion(Object result) {
+        if(result == null){
+            return resultVersion;
+        }
+        if(result instanceof VersionedResult){
+            resultVersion = ((VersionedResult) result).getVersion();
+        }else if(lastResult == null || !lastResult.equals(result)){
+            resultVersion++;
+        }
+        lastResult = result;
+        return resultVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "ActionState{" +
+                "actionCode=" + actionCode +
+                ", lastActiveTime=" + lastActiveTime +
+                ", sequence=" + sequence +
+                '}';
+    }
+}
@@ -1,15 +1,19 @@
 package com.edu.pollingquery.context;
 
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ViewKey;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -31,12 +35,27 @@ public class BoundRelationContextHolder<T> {
     /**
      * 查询行为编号与对应视图绑定关系 一次查询动作结果可以对应多个视图，每个视图绑定多个查询请求结果 动作和视图允许带有请求参数
      */
-    protected Map<String, Set<String>> QUERY_ACTION_BOUND_MAP = new ConcurrentHashMap<>();
+    protected Map<ActionKey, Set<ViewKey>> QUERY_ACTION_BOUND_MAP = new ConcurrentHashMap<>();
 
     /**
      * 视图和绑定结果关系
      */
-    protected final Map<String, Queue<BoundResultRequestContextHolder<T>>> VIEW_RESULT_BOUND_MAP = new ConcurrentHashMap<>();
+    protected final Map<ViewKey, PendingRequestQueue<T>> VIEW_RESULT_BOUND_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 视图与查询动作的反向索引 视图编码（带参数）-> 动作编码（带参数），随绑定关系同步维护，保证按视图查找动作为常数时间
+     */
+    protected final Map<ViewKey, ActionKey> VIEW_ACTION_INDEX_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 视图与绑定关系模板的反向索引 视图编码（无参数）-> 绑定关系模板，初始化模板时构建
+     */
+    protected Map<String, Map.Entry<String, Set<String>>> VIEW_TEMPLATE_INDEX_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 动作运行状态（最近活跃时间、请求序号） 同时作为动作级别的互斥点：请求入队和空闲回收都在该映射的compute中完成，避免请求进入已被回收的队列
+     */
+    protected final Map<ActionKey, ActionState> ACTION_STATE_MAP = new ConcurrentHashMap<>();
 
     /**
      * 初始化查询事件和视图关系
@@ -44,18 +63,39 @@ public class BoundRelationContextHolder<T> {
     public void initActionBound(Map<String, Set<String>> boundMap){
         if(QUERY_ACTION_BOUND_TEMPLATE_MAP.isEmpty()){
             QUERY_ACTION_BOUND_TEMPLATE_MAP = checkNotEmpty(boundMap, "bound action to view map is not allow to null!");
+            VIEW_TEMPLATE_INDEX_MAP = buildTemplateIndex(QUERY_ACTION_BOUND_TEMPLATE_MAP);
+        }
+    }
+
+    /**
+     * 根据绑定关系模板构建视图反向索引 同一视图配置在多个模板中时以首次出现的模板为准（与原有遍历查找行为一致）
+     * @param templateMap 绑定关系模板
+     * @return 视图到模板的索引
+     */
+    private Map<String, Map.Entry<String, Set<String>>> buildTemplateIndex(Map<String, Set<String>> templateMap){
+        Map<String, Map.Entry<String, Set<String>>> templateIndex = new ConcurrentHashMap<>();
+        for(Map.Entry<String, Set<String>> entry : templateMap.entrySet()){
+            if(entry.getKey() == null || CollectionUtils.isEmpty(entry.getValue())){
+                continue;
+            }
+            for(String viewCode : entry.getValue()){
+                if(viewCode != null && templateIndex.putIfAbsent(viewCode, entry) != null){
+                    log.warn("视图绑定了多个查询动作模板，仅首个模板生效！viewCode:" + viewCode);
+                }
+            }
         }
+        return templateIndex;
     }
 
     public Set<Map.Entry<String, Set<String>>> getActionBoundTemplateEntries(){
         return QUERY_ACTION_BOUND_TEMPLATE_MAP.entrySet();
     }
 
-    public Set<Map.Entry<String, Set<String>>> getActionBoundEntries(){
+    public Set<Map.Entry<ActionKey, Set<ViewKey>>> getActionBoundEntries(){
         return QUERY_ACTION_BOUND_MAP.entrySet();
     }
 
-    public boolean bindActionAndViews(String actionCode, Set<String> viewCodes){
+    public boolean bindActionAndViews(ActionKey actionCode, Set<ViewKey> viewCodes){
         if(actionCode == null || viewCodes == null || viewCodes.isEmpty()){
             log.error("绑定关系元素为空！actionCode:" + actionCode);
             return false;
@@ -67,25 +107,158 @@ public class BoundRelationContextHolder<T> {
             viewCodes1.addAll(viewCodes2);
             return viewCodes1;
         });
+        ACTION_STATE_MAP.computeIfAbsent(actionCode, ActionState::new);
+        //绑定关系建立后再维护反向索引，保证通过索引查到的动作一定已经完成绑定
+        for(ViewKey viewCode : viewCodes){
+            ActionKey boundActionCode = VIEW_ACTION_INDEX_MAP.putIfAbsent(viewCode, actionCode);
+            if(boundActionCode != null && !boundActionCode.equals(actionCode)){
+                log.warn("视图已绑定其他查询动作，忽略本次索引！viewCode:" + viewCode + ", actionCode:" + boundActionCode);
+            }
+        }
         return true;
     }
 
-    public Set<String> getViewsByActionCode(String actionCode){
+    public Set<ViewKey> getViewsByActionCode(ActionKey actionCode){
         return QUERY_ACTION_BOUND_MAP.get(actionCode);
     }
 
-    public Queue<BoundResultRequestContextHolder<T>> initViewBoundResultQueueIfAbsent(String viewCode, Queue<BoundResultRequestContextHolder<T>> rstQueue){
-        if(!VIEW_RESULT_BOUND_MAP.containsKey(viewCode)) {
-            VIEW_RESULT_BOUND_MAP.putIfAbsent(viewCode, rstQueue);
-        }
-        return VIEW_RESULT_BOUND_MAP.get(viewCode);
+    /**
+     * 根据视图编码（带参数）获取已绑定的动作编码
+     * @param viewCode 视图编码
+     * @return 动作编码，未绑定时返回null
+     */
+    public ActionKey getActionCodeByViewCode(ViewKey viewCode){
+        return viewCode == null ? null : VIEW_ACTION_INDEX_MAP.get(viewCode);
     }
 
+    /**
+     * 根据视图编码（无参数）获取绑定关系模板
+     * @param viewCode 视图编码
+     * @return 绑定关系模板，未配置时返回null
+     */
+    public Map.Entry<String, Set<String>> getActionBoundTemplateByViewCode(String viewCode){
+        return viewCode == null ? null : VIEW_TEMPLATE_INDEX_MAP.get(viewCode);
+    }
+
+    public PendingRequestQueue<T> initViewBoundResultQueueIfAbsent(ViewKey viewCode,
+                                                                   Function<ViewKey, PendingRequestQueue<T>> queueFactory){
+        PendingRequestQueue<T> rstQueue = VIEW_RESULT_BOUND_MAP.get(viewCode);
+        return rstQueue != null ? rstQueue : VIEW_RESULT_BOUND_MAP.computeIfAbsent(viewCode, queueFactory);
+    }
 
-    public Queue<BoundResultRequestContextHolder<T>> getViewBoundResultQueueByViewCode(String viewCode){
+
+    public PendingRequestQueue<T> getViewBoundResultQueueByViewCode(ViewKey viewCode){
         return VIEW_RESULT_BOUND_MAP.get(viewCode);
     }
 
+    /**
+     * 为请求分配动作序号后放入视图绑定的队列并刷新动作活跃时间
+     * @param actionCode 视图已绑定的动作编码
+     * @param viewCode 视图编码
+     * @param requestHolder 请求
+     * @param queueFactory 视图队列不存在时的创建方法
+     * @return 视图与动作的绑定关系已被回收时返回false，需要重新建立绑定后再次放入
+     */
+    public boolean offerBoundResult(ActionKey actionCode, ViewKey viewCode, BoundResultRequestContextHolder<T> requestHolder,
+                                    Function<ViewKey, PendingRequestQueue<T>> queueFactory){
+        final boolean[] offered = {false};
+        ACTION_STATE_MAP.compute(actionCode, (key, actionState) -> {
+            if(actionState == null || !actionCode.equals(VIEW_ACTION_INDEX_MAP.get(viewCode))){
+                return actionState;
+            }
+            actionState.touch();
+            requestHolder.setSequence(actionState.nextSequence());
+            PendingRequestQueue<T> rstQueue = initViewBoundResultQueueIfAbsent(viewCode, queueFactory);
+            //请求结束（超时、完成或出错）时标记为已结束，不再参与查询判断，积累较多时由队列统一清理
+            requestHolder.setReleaseCallback(() -> rstQueue.release(requestHolder));
+            offered[0] = rstQueue.offer(requestHolder);
+            return actionState;
+        });
+        return offered[0];
+    }
+
+    /**
+     * 刷新动作最近活跃时间 请求直接使用已有结果返回、没有入队时调用，避免持续被请求的动作被空闲回收
+     * @param actionCode 动作编码
+     * @return 动作是否存在
+     */
+    public boolean touchAction(ActionKey actionCode){
+        final boolean[] touched = {false};
+        ACTION_STATE_MAP.computeIfPresent(actionCode, (key, actionState) -> {
+            actionState.touch();
+            touched[0] = true;
+            return actionState;
+        });
+        return touched[0];
+    }
+
+    /**
+     * 获取所有存在绑定关系的动作编码
+     * @return 动作编码
+     */
+    public Set<ActionKey> getActiveActionCodes(){
+        return ACTION_STATE_MAP.keySet();
+    }
+
+    /**
+     * 获取动作当前的请求序号 查询开始时调用，序号不大于该值的请求都可以使用本次查询结果
+     * @param actionCode 动作编码
+     * @return 当前序号，动作不存在时返回0
+     */
+    public long getCurrentSequence(ActionKey actionCode){
+        ActionState actionState = ACTION_STATE_MAP.get(actionCode);
+        return actionState == null ? 0L : actionState.currentSequence();
+    }
+
+    /**
+     * 计算动作查询结果的版本
+     * @param actionCode 动作编码
+     * @param result 查询结果
+     * @return 结果版本，动作不存在时返回0
+     */
+    public long resolveResultVersion(ActionKey actionCode, Object result){
+        ActionState actionState = ACTION_STATE_MAP.get(actionCode);
+        return actionState == null ? 0L : actionState.resolveResultVersion(result);
+    }
+
+    /**
+     * 动作空闲时回收其绑定关系和视图队列
+     * @param actionCode 动作编码
+     * @param idleDeadline 最近活跃时间早于该时间（毫秒）视为空闲
+     * @param evictionListeners 回收监听，在动作级别互斥范围内回调
+     * @return 是否回收
+     */
+    public boolean evictActionIfIdle(ActionKey actionCode, long idleDeadline, List<ActionEvictionListener> evictionListeners){
+        final boolean[] evicted = {false};
+        ACTION_STATE_MAP.computeIfPresent(actionCode, (key, actionState) -> {
+            if(actionState.getLastActiveTime() > idleDeadline){
+                return actionState;
+            }
+            Set<ViewKey> viewCodes = QUERY_ACTION_BOUND_MAP.getOrDefault(actionCode, Collections.emptySet());
+            for(ViewKey viewCode : viewCodes){
+                PendingRequestQueue<T> rstQueue = VIEW_RESULT_BOUND_MAP.get(viewCode);
+                if(rstQueue != null && rstQueue.peekUnfinished() != null){
+                    return actionState;
+                }
+            }
+            QUERY_ACTION_BOUND_MAP.remove(actionCode);
+            for(ViewKey viewCode : viewCodes){
+                VIEW_ACTION_INDEX_MAP.remove(viewCode, actionCode);
+                VIEW_RESULT_BOUND_MAP.remove(viewCode);
+            }
+            for(ActionEvictionListener evictionListener : evictionListeners){
+                try {
+                    evictionListener.onActionEvicted(actionCode, viewCodes);
+                }catch (Exception e){
+                    log.error("回收动作资源失败！actionCode:" + actionCode, e);
+                }
+            }
+            evicted[0] = true;
+            return null;
+        });
+        return evicted[0];
+    }
+
     public static <K, V> Map<K, V> checkNotEmpty(Map<K, V> reference, @Nullable Object errorMessage) {
         if (reference == null || reference.isEmpty()) {
             throw new IllegalArgumentException(String.valueOf(errorMessage));
@@ -1,19 +1,16 @@
 package com.edu.pollingquery.context;
 
-import com.google.common.collect.Queues;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ViewKey;
 import com.google.common.collect.Sets;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
-import org.springframework.util.StringUtils;
 
 import java.util.AbstractMap;
-import java.util.Comparator;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -27,14 +24,19 @@ import java.util.stream.Collectors;
 public class BoundRelationSupport<T> {
 
     /**
-     * 编码和参数的分隔符
+     * 默认根据viewCode生成的actionCode前缀
      */
-    private final static String CODE_PARAM_SEPARATOR = "::";
+    private final static String ACTION_PREFIX = "Q_";
 
     /**
-     * 默认根据viewCode生成的actionCode前缀
+     * 绑定请求到视图队列的最大尝试次数
      */
-    private final static String ACTION_PREFIX = "Q_";
+    private final static int MAX_BIND_ATTEMPTS = 3;
+
+    /**
+     * 视图编码与默认动作编码的映射缓存，避免重复拼接前缀
+     */
+    private static final Map<String, String> DEFAULT_ACTION_CODE_MAP = new ConcurrentHashMap<>();
 
     /**
      * 绑定关系对象Spring单例
@@ -46,41 +48,33 @@ public class BoundRelationSupport<T> {
     }
 
     /**
-     * 包装视图名称
+     * 包装视图编码
      * @param viewCode 视图编码
      * @param requestParam 请求参数对象
-     * @return 视图名称
+     * @return 视图编码（带参数）
      */
-    private String wrapperViewCodeByParam(String viewCode, Object requestParam){
-        if(viewCode == null || requestParam == null){
-            return viewCode;
-        }
-        return viewCode.concat(CODE_PARAM_SEPARATOR).concat(requestParam.toString());
+    public ViewKey wrapperViewCodeByParam(String viewCode, Object requestParam){
+        return viewCode == null ? null : ViewKey.of(viewCode, requestParam);
     }
 
     /**
      * 包装动作编码
      * @param actionCode 动作编码
      * @param requestParam 请求参数对象
-     * @return 动作编码
+     * @return 动作编码（带参数）
      */
-    private String wrapperActionCodeByParam(String actionCode, Object requestParam){
-        if(actionCode == null || requestParam == null){
-            return actionCode;
-        }
-        return actionCode.concat(CODE_PARAM_SEPARATOR).concat(requestParam.toString());
+    public ActionKey wrapperActionCodeByParam(String actionCode, Object requestParam){
+        return actionCode == null ? null : ActionKey.of(actionCode, requestParam);
     }
 
     /**
      * 无模板直接生成默认绑定关系
-     * @param viewCode 视图编码
-     * @param requestParam 请求参数对象
+     * @param viewKey 视图编码（带参数）
      * @return 生成的绑定关系
      */
-    private Map.Entry<String, Set<String>> generateBindRelationWithOutTemplate(String viewCode, Object requestParam) {
-        String viewCodeWithParam = wrapperViewCodeByParam(viewCode, requestParam);
-        return viewCodeWithParam == null ? null :
-                new AbstractMap.SimpleEntry<>(ACTION_PREFIX + viewCodeWithParam, Sets.newHashSet(viewCodeWithParam));
+    private Map.Entry<ActionKey, Set<ViewKey>> generateBindRelationWithOutTemplate(ViewKey viewKey) {
+        String actionCode = DEFAULT_ACTION_CODE_MAP.computeIfAbsent(viewKey.getCode(), ACTION_PREFIX::concat);
+        return new AbstractMap.SimpleEntry<>(ActionKey.of(actionCode, viewKey.getParam()), Sets.newHashSet(viewKey));
     }
 
     /**
@@ -89,13 +83,13 @@ public class BoundRelationSupport<T> {
      * @param requestParam 请求参数对象
      * @return 生成的绑定关系
      */
-    private Map.Entry<String, Set<String>> generateBindRelationByTemplate(Map.Entry<String, Set<String>> relationTemplate,
-                                                                          Object requestParam){
+    private Map.Entry<ActionKey, Set<ViewKey>> generateBindRelationByTemplate(Map.Entry<String, Set<String>> relationTemplate,
+                                                                              Object requestParam){
         if(relationTemplate.getKey() == null || relationTemplate.getValue() == null){
             return null;
         }
-        String actionCode = wrapperActionCodeByParam(relationTemplate.getKey(),requestParam);
-        Set<String> viewCodes = relationTemplate.getValue().stream()
+        ActionKey actionCode = wrapperActionCodeByParam(relationTemplate.getKey(), requestParam);
+        Set<ViewKey> viewCodes = relationTemplate.getValue().stream()
                 .map(viewCode -> wrapperViewCodeByParam(viewCode, requestParam))
                 .collect(Collectors.toSet());
         return CollectionUtils.isEmpty(viewCodes) ? null : new AbstractMap.SimpleEntry<>(actionCode, viewCodes);
@@ -113,55 +107,40 @@ public class BoundRelationSupport<T> {
             }
             return null;
         }
-        for (Map.Entry<String, Set<String>> entry : boundRelationContext.getActionBoundTemplateEntries()) {
-            if (CollectionUtils.isEmpty(entry.getValue())) {
-                continue;
-            }
-            if (entry.getValue().contains(viewCode)) {
-                return entry;
-            }
-        }
-        if(log.isTraceEnabled()) {
+        Map.Entry<String, Set<String>> relationTemplate = boundRelationContext.getActionBoundTemplateByViewCode(viewCode);
+        if(relationTemplate == null && log.isTraceEnabled()) {
             log.trace("无法获取到视图绑定的查询动作关系模板配置！viewCode:" + viewCode);
         }
-        return null;
+        return relationTemplate;
     }
 
     /**
      * 根据视图编码查询动作编码（实际查询结果分发查询时依赖该编码）
-     * @param viewCodeWithParam 视图编码（已经根据参数组装）
+     * @param viewKey 视图编码（已经根据参数组装）
      * @return 动作编码
      */
-    private String obtainActionCodeByViewCode(String viewCodeWithParam){
-        for(Map.Entry<String, Set<String>> entry : boundRelationContext.getActionBoundEntries()){
-            if(CollectionUtils.isEmpty(entry.getValue())){
-                continue;
-            }
-            if(entry.getValue().contains(viewCodeWithParam)){
-                return entry.getKey();
-            }
-        }
-        return null;
+    private ActionKey obtainActionCodeByViewCode(ViewKey viewKey){
+        return boundRelationContext.getActionCodeByViewCode(viewKey);
     }
 
     /**
      * 获取或生成（包含绑定操作）动作编码
-     * @param viewCode 视图编码（原始无参数拼接）
-     * @param requestParam 请求参数
+     * @param viewKey 视图编码（已经根据参数组装）
      * @return 动作编码
      */
-    public String obtainOrCreateActionCode(String viewCode, Object requestParam){
-        //根据参数和原始视图编码生成要查询的视图编码
-        String viewCodeWithParam = wrapperViewCodeByParam(viewCode, requestParam);
+    public ActionKey obtainOrCreateActionCode(ViewKey viewKey){
+        if(viewKey == null){
+            return null;
+        }
         //获取动作编码
-        String actionCodeWithParam = obtainActionCodeByViewCode(viewCodeWithParam);
+        ActionKey actionCodeWithParam = obtainActionCodeByViewCode(viewKey);
         //如果已经绑定则直接返回，没有绑定则生成绑定关系后执行绑定操作再返回动作编码
-        if(StringUtils.isEmpty(actionCodeWithParam)){
-            Map.Entry<String, Set<String>> relationTemplate = obtainRelationTemplateByViewCode(viewCode);
+        if(actionCodeWithParam == null){
+            Map.Entry<String, Set<String>> relationTemplate = obtainRelationTemplateByViewCode(viewKey.getCode());
             //生成绑定关系
-            Map.Entry<String, Set<String>> bindRelation =
-                    relationTemplate == null ? generateBindRelationWithOutTemplate(viewCode, requestParam) :
-                            generateBindRelationByTemplate(relationTemplate, requestParam);
+            Map.Entry<ActionKey, Set<ViewKey>> bindRelation =
+                    relationTemplate == null ? generateBindRelationWithOutTemplate(viewKey) :
+                            generateBindRelationByTemplate(relationTemplate, viewKey.getParam());
             if(bindRelation == null){
                 return null;
             }
@@ -174,27 +153,78 @@ public class BoundRelationSupport<T> {
     }
 
     /**
-     * 获取视图绑定的线程安全的优先级队列，如果队列不存在会先创建再绑定到视图
+     * 获取或生成（包含绑定操作）动作编码
      * @param viewCode 视图编码（原始无参数拼接）
-     * @param requestParam requestParam 请求参数
+     * @param requestParam 请求参数
+     * @return 动作编码
+     */
+    public ActionKey obtainOrCreateActionCode(String viewCode, Object requestParam){
+        return obtainOrCreateActionCode(wrapperViewCodeByParam(viewCode, requestParam));
+    }
+
+    /**
+     * 创建视图绑定的待处理请求队列
+     * @param viewKey 视图编码（已经根据参数组装）
+     * @return 队列
+     */
+    private PendingRequestQueue<T> createViewBoundResultQueue(ViewKey viewKey){
+        return new PendingRequestQueue<>();
+    }
+
+    /**
+     * 绑定请求到视图队列，如果队列不存在会先创建再绑定到视图 请求按动作序号追加到队列尾部
+     * 视图的绑定关系在此期间被空闲回收时重新建立绑定后再次放入
+     * @param viewKey 视图编码（已经根据参数组装）
+     * @param requestHolder 请求
+     * @return 动作编码，无法建立绑定时返回null
+     */
+    public ActionKey bindRequestToView(ViewKey viewKey, BoundResultRequestContextHolder<T> requestHolder){
+        for(int i = 0; i < MAX_BIND_ATTEMPTS; i++){
+            ActionKey actionCode = obtainOrCreateActionCode(viewKey);
+            if(actionCode == null){
+                return null;
+            }
+            if(boundRelationContext.offerBoundResult(actionCode, viewKey, requestHolder, this::createViewBoundResultQueue)){
+                return actionCode;
+            }
+            if(log.isTraceEnabled()){
+                log.trace("视图绑定关系已被回收，重新绑定：viewCode={}", viewKey);
+            }
+        }
+        log.error("绑定请求到视图队列失败！viewCode:" + viewKey);
+        return null;
+    }
+
+    /**
+     * 刷新动作最近活跃时间 请求直接使用已有结果返回时调用
+     * @param actionCode 动作编码
+     * @return 动作是否存在
+     */
+    public boolean touchAction(ActionKey actionCode){
+        return actionCode != null && boundRelationContext.touchAction(actionCode);
+    }
+
+    /**
+     * 获取视图绑定的待处理请求队列，如果队列不存在会先创建再绑定到视图
+     * @param viewKey 视图编码（已经根据参数组装）
      * @return 视图绑定的队列信息
      */
-    public Queue<BoundResultRequestContextHolder<T>> ObtainViewBoundResultQueue(String viewCode, Object requestParam){
-        Queue<BoundResultRequestContextHolder<T>> boundResultQueue =
-                boundRelationContext.initViewBoundResultQueueIfAbsent(
-                        wrapperViewCodeByParam(viewCode, requestParam),
-                        new PriorityBlockingQueue<>(11,
-                                Comparator.comparing(BoundResultRequestContextHolder::getReqStartTime))
-                        /*Queues.synchronizedQueue(
-                                new PriorityQueue<BoundResultRequestContextHolder<T>>(
-                                        Comparator.comparing(BoundResultRequestContextHolder::getReqStartTime)
-                                )
-                        )*/
-
-                );
+    public PendingRequestQueue<T> ObtainViewBoundResultQueue(ViewKey viewKey){
+        PendingRequestQueue<T> boundResultQueue =
+                boundRelationContext.initViewBoundResultQueueIfAbsent(viewKey, this::createViewBoundResultQueue);
         if(log.isTraceEnabled()){
             log.trace("绑定视图查询队列记录：{}", boundResultQueue.toString());
         }
         return boundResultQueue;
     }
+
+    /**
+     * 获取视图绑定的待处理请求队列，如果队列不存在会先创建再绑定到视图
+     * @param viewCode 视图编码（原始无参数拼接）
+     * @param requestParam requestParam 请求参数
+     * @return 视图绑定的队列信息
+     */
+    public PendingRequestQueue<T> ObtainViewBoundResultQueue(String viewCode, Object requestParam){
+        return ObtainViewBoundResultQueue(wrapperViewCodeByParam(viewCode, requestParam));
+    }
 }
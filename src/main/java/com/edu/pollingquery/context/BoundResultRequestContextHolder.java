@@ -7,6 +7,8 @@ import java.io.Serializable;
 import java.util.Date;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -28,9 +30,14 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
     private String viewCode;
 
     /**
-     * 请求发起时间
+     * 请求发起时间（毫秒）
      */
-    private volatile Date reqStartTime;
+    private volatile long reqStartTime;
+
+    /**
+     * 请求序号 入队时由动作分配，序号不大于查询轮次序号的请求可以使用该轮查询结果
+     */
+    private volatile long sequence;
 
     /**
      * 用户ID
@@ -62,15 +69,73 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
      */
     private Set<ResultProcessorType> supportProcessorTypes;
 
+    /**
+     * 可以容忍的缓存结果过期时间（毫秒），为空时使用视图的配置
+     */
+    private Long maxStaleness;
+
+    /**
+     * 是否使用过期可用模式 有最近一轮的查询结果时立即返回，结果过旧时在后台刷新
+     */
+    private boolean staleWhileRevalidate;
+
+    /**
+     * 客户端已经获取的结果版本，为空时不判断版本 设置后只有结果版本大于该值时才返回，否则继续等待直到超时
+     */
+    private Long lastSeenVersion;
+
+    /**
+     * 是否使用增量模式 客户端已获取上一版本的结果时返回{@link com.edu.pollingquery.delta.ResultDelta}，否则返回完整结果
+     * 结果需为集合，且开启加工结果复用
+     */
+    private boolean deltaMode;
+
+    /**
+     * 是否使用一次编码模式 结果编码为JSON字节后以{@link org.springframework.http.ResponseEntity}返回，相同结果的请求共享编码内容
+     */
+    private boolean serializeOnce;
+
+    /**
+     * 一次编码模式下是否返回gzip压缩后的内容，客户端支持gzip时设置
+     */
+    private boolean acceptGzip;
+
+    /**
+     * 返回结果的版本，客户端下次请求时作为已获取的结果版本
+     */
+    private volatile long resultVersion;
+
+    /**
+     * 请求结束（完成、超时或出错）时将请求从视图队列中移除的回调
+     */
+    private transient volatile Runnable releaseCallback;
+
+    /**
+     * 请求在视图队列中的状态 保证已结束请求的计数只增减一次
+     */
+    private final transient AtomicInteger queueState = new AtomicInteger(QUEUE_STATE_UNLINKED);
+
+    private static final int QUEUE_STATE_QUEUED = 0;
+
+    private static final int QUEUE_STATE_RELEASED = 1;
+
+    private static final int QUEUE_STATE_UNLINKED = 2;
+
     /**
      * 请求默认超时时间
      */
     private static final Long DEFAULT_TIMEOUT = 5000L;
 
+    {
+        super.onTimeout(this::releaseFromQueue);
+        super.onError(e -> releaseFromQueue());
+        super.onCompletion(this::releaseFromQueue);
+    }
+
     public BoundResultRequestContextHolder(String viewCode, Function<Object, T> function, Object param,
                                            String userId, String deptId) {
         super(DEFAULT_TIMEOUT);
-        this.reqStartTime = new Date();
+        this.reqStartTime = System.currentTimeMillis();
         this.viewCode = viewCode;
         this.function = checkNotNull(function);
         this.param = param;
@@ -80,7 +145,7 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
 
     public BoundResultRequestContextHolder(String viewCode, Supplier<T> supplier, String userId, String deptId) {
         super(DEFAULT_TIMEOUT);
-        this.reqStartTime = new Date();
+        this.reqStartTime = System.currentTimeMillis();
         this.viewCode = viewCode;
         this.supplier = checkNotNull(supplier);
         this.userId = userId;
@@ -92,7 +157,7 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
                                            Set<ResultProcessorType> supportProcessorTypes) {
         super(timeout != null ? timeout : DEFAULT_TIMEOUT);
         this.viewCode = viewCode;
-        this.reqStartTime = reqStartTime;
+        this.reqStartTime = toMillis(reqStartTime);
         this.userId = userId;
         this.deptId = deptId;
         this.function = checkNotNull(function);
@@ -105,7 +170,7 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
                                            Set<ResultProcessorType> supportProcessorTypes) {
         super(timeout != null ? timeout : DEFAULT_TIMEOUT);
         this.viewCode = viewCode;
-        this.reqStartTime = reqStartTime;
+        this.reqStartTime = toMillis(reqStartTime);
         this.userId = userId;
         this.deptId = deptId;
         this.supplier = checkNotNull(supplier);
@@ -117,7 +182,7 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
                                            Set<ResultProcessorType> supportProcessorTypes) {
         super(timeout != null ? timeout : DEFAULT_TIMEOUT);
         this.viewCode = viewCode;
-        this.reqStartTime = new Date();
+        this.reqStartTime = System.currentTimeMillis();
         this.userId = userId;
         this.deptId = deptId;
         this.supplier = checkNotNull(supplier);
@@ -130,7 +195,7 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
                                            Set<ResultProcessorType> supportProcessorTypes) {
         super(timeout, timeoutResult);
         this.viewCode = viewCode;
-        this.reqStartTime = reqStartTime;
+        this.reqStartTime = toMillis(reqStartTime);
         this.userId = userId;
         this.deptId = deptId;
         this.function = checkNotNull(function);
@@ -143,13 +208,75 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
                                            Set<ResultProcessorType> supportProcessorTypes) {
         super(timeout, timeoutResult);
         this.viewCode = viewCode;
-        this.reqStartTime = reqStartTime;
+        this.reqStartTime = toMillis(reqStartTime);
         this.userId = userId;
         this.deptId = deptId;
         this.supplier = checkNotNull(supplier);
         this.supportProcessorTypes = supportProcessorTypes;
     }
 
+    @Override
+    public void onTimeout(Runnable callback) {
+        super.onTimeout(() -> {
+            releaseFromQueue();
+            callback.run();
+        });
+    }
+
+    @Override
+    public void onError(Consumer<Throwable> callback) {
+        super.onError(e -> {
+            releaseFromQueue();
+            callback.accept(e);
+        });
+    }
+
+    @Override
+    public void onCompletion(Runnable callback) {
+        super.onCompletion(() -> {
+            releaseFromQueue();
+            callback.run();
+        });
+    }
+
+    /**
+     * 设置请求结束时从视图队列中移除的回调 请求入队时设置
+     * @param releaseCallback 回调
+     */
+    void setReleaseCallback(Runnable releaseCallback) {
+        if(releaseCallback != null){
+            queueState.set(QUEUE_STATE_QUEUED);
+        }
+        this.releaseCallback = releaseCallback;
+    }
+
+    /**
+     * 标记队列中的请求已结束
+     * @return 是否首次标记，已标记或已移出队列时返回false
+     */
+    boolean markReleased() {
+        return queueState.compareAndSet(QUEUE_STATE_QUEUED, QUEUE_STATE_RELEASED);
+    }
+
+    /**
+     * 标记请求已移出队列
+     * @return 移出前是否已标记为结束
+     */
+    boolean markUnlinked() {
+        return queueState.getAndSet(QUEUE_STATE_UNLINKED) == QUEUE_STATE_RELEASED;
+    }
+
+    /**
+     * 从视图队列中移除请求，仅执行一次
+     */
+    void releaseFromQueue() {
+        Runnable callback = this.releaseCallback;
+        if(callback != null){
+            this.releaseCallback = null;
+            callback.run();
+        }
+    }
+
     public String getViewCode() {
         return viewCode;
     }
@@ -159,11 +286,27 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
     }
 
     public Date getReqStartTime() {
-        return reqStartTime;
+        return reqStartTime > 0 ? new Date(reqStartTime) : null;
     }
 
     public void setReqStartTime(Date reqStartTime) {
-        this.reqStartTime = reqStartTime;
+        this.reqStartTime = toMillis(reqStartTime);
+    }
+
+    public long getReqStartTimeMillis() {
+        return reqStartTime;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    private static long toMillis(Date date) {
+        return date == null ? 0L : date.getTime();
     }
 
     public String getUserId() {
@@ -214,11 +357,77 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
         this.supportProcessorTypes = supportProcessorTypes;
     }
 
+    public Long getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    public void setMaxStaleness(Long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    public boolean isStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public Long getLastSeenVersion() {
+        return lastSeenVersion;
+    }
+
+    public void setLastSeenVersion(Long lastSeenVersion) {
+        this.lastSeenVersion = lastSeenVersion;
+    }
+
+    /**
+     * 结果版本是否已被客户端获取
+     * @param version 结果版本
+     * @return 客户端已获取该版本时返回true
+     */
+    public boolean hasSeenVersion(long version) {
+        return lastSeenVersion != null && version > 0L && version <= lastSeenVersion;
+    }
+
+    public boolean isDeltaMode() {
+        return deltaMode;
+    }
+
+    public void setDeltaMode(boolean deltaMode) {
+        this.deltaMode = deltaMode;
+    }
+
+    public boolean isSerializeOnce() {
+        return serializeOnce;
+    }
+
+    public void setSerializeOnce(boolean serializeOnce) {
+        this.serializeOnce = serializeOnce;
+    }
+
+    public boolean isAcceptGzip() {
+        return acceptGzip;
+    }
+
+    public void setAcceptGzip(boolean acceptGzip) {
+        this.acceptGzip = acceptGzip;
+    }
+
+    public long getResultVersion() {
+        return resultVersion;
+    }
+
+    public void setResultVersion(long resultVersion) {
+        this.resultVersion = resultVersion;
+    }
+
     @Override
     public String toString() {
         return "BoundResultRequestContextHolder{" +
                 "viewCode='" + viewCode + '\'' +
                 ", reqStartTime=" + reqStartTime +
+                ", sequence=" + sequence +
                 ", userId='" + userId + '\'' +
                 ", deptId='" + deptId + '\'' +
                 ", function=" + function +
@@ -233,8 +442,8 @@ public class BoundResultRequestContextHolder<T> extends DeferredResult<T> implem
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         BoundResultRequestContextHolder<?> that = (BoundResultRequestContextHolder<?>) o;
-        return Objects.equals(viewCode, that.viewCode) &&
-                Objects.equals(reqStartTime, that.reqStartTime) &&
+        return reqStartTime == that.reqStartTime &&
+                Objects.equals(viewCode, that.viewCode) &&
                 Objects.equals(userId, that.userId) &&
                 Objects.equals(deptId, that.deptId) &&
                 Objects.equals(function, that.function) &&
@@ -0,0 +1,87 @@
+package com.edu.pollingquery.context;
+
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.model.ActionKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 空闲动作回收器 定期回收长时间没有请求的动作绑定关系、视图队列以及相关线程池
+ *
+ * @author jcb
+ * @since 2021/5/12
+ */
+@Slf4j
+@Component
+public class IdleActionEvictor implements InitializingBean, DisposableBean {
+
+    private final BoundRelationContextHolder<?> boundRelationContext;
+
+    private final List<ActionEvictionListener> evictionListeners;
+
+    private final PollingQueryProperties.Eviction evictionProperties;
+
+    private ScheduledExecutorService scheduler;
+
+    public IdleActionEvictor(BoundRelationContextHolder<?> boundRelationContext,
+                             @Autowired(required = false) List<ActionEvictionListener> evictionListeners,
+                             PollingQueryProperties properties) {
+        this.boundRelationContext = boundRelationContext;
+        this.evictionListeners = evictionListeners == null ? Collections.emptyList() : evictionListeners;
+        this.evictionProperties = properties.getEviction();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if(!evictionProperties.isEnabled()){
+            log.info("轮询查询空闲回收未开启!");
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("pollingQuery-idle-evictor-");
+        threadFactory.setDaemon(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long interval = evictionProperties.getCheckInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::evictIdleActions, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if(scheduler != null){
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 回收空闲的动作
+     * @return 回收的动作数量
+     */
+    public int evictIdleActions(){
+        long idleDeadline = System.currentTimeMillis() - evictionProperties.getIdleTimeout().toMillis();
+        int evictedCnt = 0;
+        try {
+            List<ActionKey> actionCodes = new ArrayList<>(boundRelationContext.getActiveActionCodes());
+            for (ActionKey actionCode : actionCodes) {
+                if (boundRelationContext.evictActionIfIdle(actionCode, idleDeadline, evictionListeners)) {
+                    ++evictedCnt;
+                }
+            }
+        }catch (Exception e){
+            log.error(e.getMessage(), e);
+        }
+        if(evictedCnt > 0 && log.isDebugEnabled()){
+            log.debug("回收空闲轮询查询动作：{}个", evictedCnt);
+        }
+        return evictedCnt;
+    }
+}
@@ -0,0 +1,231 @@
+package com.edu.pollingquery.context;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 视图待处理请求队列 按请求序号追加有序
+ * 请求在动作级别互斥范围内分配序号并入队，队列中的请求序号严格递增，因此只需从队首批量取出序号不大于查询轮次序号的请求
+ * 入队为无锁操作，出队、移除等消费操作通过队列自身的锁互斥（仅同一视图的消费者之间竞争）
+ *
+ * @author jcb
+ * @since 2021/5/17
+ */
+public class PendingRequestQueue<T> extends AbstractQueue<BoundResultRequestContextHolder<T>> {
+
+    /**
+     * 已结束请求的数量超过该阈值时尝试清理
+     */
+    private static final int COMPACT_THRESHOLD = 64;
+
+    private final ConcurrentLinkedQueue<BoundResultRequestContextHolder<T>> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 队列中的请求数量（包含已结束但未移除的请求）
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * 已结束但未移除的请求数量 每个请求结束时计数一次，移出队列时扣减
+     */
+    private final AtomicInteger releasedCount = new AtomicInteger();
+
+    /**
+     * 消费锁
+     */
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    @Override
+    public boolean offer(BoundResultRequestContextHolder<T> requestHolder) {
+        if(requestHolder == null){
+            throw new NullPointerException();
+        }
+        queue.offer(requestHolder);
+        count.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public BoundResultRequestContextHolder<T> poll() {
+        final ReentrantLock lock = this.drainLock;
+        lock.lock();
+        try {
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BoundResultRequestContextHolder<T> peek() {
+        return queue.peek();
+    }
+
+    /**
+     * 获取队列中第一个未结束（未设置结果且未超时）的请求，不移除
+     * @return 请求，不存在时返回null
+     */
+    public BoundResultRequestContextHolder<T> peekUnfinished() {
+        for(BoundResultRequestContextHolder<T> requestHolder : queue){
+            if(!requestHolder.isSetOrExpired()){
+                return requestHolder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 批量取出序号不大于指定序号的请求 已结束的请求直接丢弃
+     * @param maxSequence 查询轮次序号
+     * @param out 存放取出的请求
+     * @return 取出的未结束请求数量
+     */
+    public int drainTo(long maxSequence, Collection<? super BoundResultRequestContextHolder<T>> out) {
+        int drained = 0;
+        final ReentrantLock lock = this.drainLock;
+        lock.lock();
+        try {
+            BoundResultRequestContextHolder<T> requestHolder;
+            while((requestHolder = queue.peek()) != null && requestHolder.getSequence() <= maxSequence){
+                pollLocked();
+                if(requestHolder.isSetOrExpired()){
+                    continue;
+                }
+                out.add(requestHolder);
+                ++drained;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return drained;
+    }
+
+    /**
+     * 标记请求已结束 请求会在出队或清理时移除，已结束的请求积累较多时触发清理
+     * @param requestHolder 已结束的请求
+     */
+    public void release(BoundResultRequestContextHolder<T> requestHolder) {
+        //请求已经出队或已经计数时忽略
+        if(!requestHolder.markReleased()){
+            return;
+        }
+        int released = releasedCount.incrementAndGet();
+        if(released >= COMPACT_THRESHOLD && released >= count.get() / 2 && drainLock.tryLock()){
+            try {
+                compactLocked();
+            } finally {
+                drainLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 按引用移除请求 请求对象的equals基于字段值
+     * @param o 请求
+     * @return 是否移除
+     */
+    @Override
+    public boolean remove(Object o) {
+        if(o == null){
+            return false;
+        }
+        final ReentrantLock lock = this.drainLock;
+        lock.lock();
+        try {
+            Iterator<BoundResultRequestContextHolder<T>> it = queue.iterator();
+            while(it.hasNext()){
+                BoundResultRequestContextHolder<T> requestHolder = it.next();
+                if(requestHolder == o){
+                    it.remove();
+                    unlinked(requestHolder);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<BoundResultRequestContextHolder<T>> iterator() {
+        final Iterator<BoundResultRequestContextHolder<T>> it = queue.iterator();
+        return new Iterator<BoundResultRequestContextHolder<T>>() {
+
+            private BoundResultRequestContextHolder<T> lastRet;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public BoundResultRequestContextHolder<T> next() {
+                lastRet = it.next();
+                return lastRet;
+            }
+
+            @Override
+            public void remove() {
+                if(lastRet == null){
+                    throw new IllegalStateException();
+                }
+                PendingRequestQueue.this.remove(lastRet);
+                lastRet = null;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return Math.max(count.get(), 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    private BoundResultRequestContextHolder<T> pollLocked() {
+        BoundResultRequestContextHolder<T> requestHolder = queue.poll();
+        if(requestHolder != null){
+            unlinked(requestHolder);
+        }
+        return requestHolder;
+    }
+
+    /**
+     * 请求移出队列后清除其结束回调，已计入结束数量的请求扣减计数
+     * @param requestHolder 移出队列的请求
+     */
+    private void unlinked(BoundResultRequestContextHolder<T> requestHolder) {
+        requestHolder.setReleaseCallback(null);
+        if(requestHolder.markUnlinked()){
+            releasedCount.decrementAndGet();
+        }
+        count.decrementAndGet();
+    }
+
+    private void compactLocked() {
+        Iterator<BoundResultRequestContextHolder<T>> it = queue.iterator();
+        while(it.hasNext()){
+            BoundResultRequestContextHolder<T> requestHolder = it.next();
+            if(requestHolder.isSetOrExpired()){
+                it.remove();
+                unlinked(requestHolder);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PendingRequestQueue{" +
+                "size=" + count +
+                ", released=" + releasedCount +
+                '}';
+    }
+}
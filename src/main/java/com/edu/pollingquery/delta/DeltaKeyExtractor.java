@@ -0,0 +1,18 @@
+package com.edu.pollingquery.delta;
+
+/**
+ * 增量结果的元素主键提取器 主键相同、内容不同的元素视为修改
+ * 未配置时使用元素本身作为主键，增量结果只包含新增和删除
+ *
+ * @author jcb
+ * @since 2021/6/9
+ */
+public interface DeltaKeyExtractor {
+
+    /**
+     * 提取元素主键
+     * @param element 结果集合中的元素
+     * @return 主键
+     */
+    Object extractKey(Object element);
+}
@@ -0,0 +1,175 @@
+package com.edu.pollingquery.delta;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 增量结果 客户端已获取版本与最新版本之间的新增、修改和删除
+ *
+ * @author jcb
+ * @since 2021/6/9
+ */
+public class ResultDelta<E> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 客户端已获取的结果版本
+     */
+    private long fromVersion;
+
+    /**
+     * 最新结果版本
+     */
+    private long toVersion;
+
+    /**
+     * 新增的元素
+     */
+    private List<E> inserted;
+
+    /**
+     * 修改的元素
+     */
+    private List<E> updated;
+
+    /**
+     * 删除的元素主键
+     */
+    private List<Object> deleted;
+
+    public ResultDelta() {
+    }
+
+    public ResultDelta(long fromVersion, long toVersion, List<E> inserted, List<E> updated, List<Object> deleted) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.inserted = inserted;
+        this.updated = updated;
+        this.deleted = deleted;
+    }
+
+    /**
+     * 按主键比较前后两个结果集合，生成增量结果
+     * 增量结果只能表示主键唯一的集合，客户端按主键修改、删除元素，新增元素追加到末尾；
+     * 集合中存在重复主键，或前后两个结果均为列表且保留元素的顺序变化、新增元素不在末尾时，无法用增量表示，返回null
+     * @param previous 客户端已获取版本的结果
+     * @param current 最新版本的结果
+     * @param fromVersion 客户端已获取的结果版本
+     * @param toVersion 最新结果版本
+     * @param keyExtractor 主键提取器，为空时使用元素本身作为主键
+     * @param <E> 元素类型
+     * @return 增量结果，无法用增量表示时返回null
+     */
+    public static <E> ResultDelta<E> between(Collection<E> previous, Collection<E> current, long fromVersion, long toVersion,
+                                             DeltaKeyExtractor keyExtractor) {
+        Map<Object, E> previousElements = index(previous, keyExtractor);
+        Map<Object, E> currentElements = index(current, keyExtractor);
+        if(previousElements == null || currentElements == null){
+            return null;
+        }
+        if(previous instanceof List && current instanceof List && !isOrderKept(previousElements, currentElements)){
+            return null;
+        }
+        List<E> inserted = new ArrayList<>();
+        List<E> updated = new ArrayList<>();
+        for(Map.Entry<Object, E> entry : currentElements.entrySet()){
+            if(!previousElements.containsKey(entry.getKey())){
+                inserted.add(entry.getValue());
+            }else if(!Objects.equals(previousElements.remove(entry.getKey()), entry.getValue())){
+                updated.add(entry.getValue());
+            }
+        }
+        return new ResultDelta<>(fromVersion, toVersion, inserted, updated, new ArrayList<>(previousElements.keySet()));
+    }
+
+    /**
+     * 按主键索引集合元素
+     * @return 主键与元素映射，保持集合顺序，存在重复主键时返回null
+     */
+    private static <E> Map<Object, E> index(Collection<E> elements, DeltaKeyExtractor keyExtractor) {
+        Map<Object, E> indexed = new LinkedHashMap<>(Math.max(16, elements.size() * 4 / 3 + 1));
+        for(E element : elements){
+            Object key = keyExtractor == null ? element : keyExtractor.extractKey(element);
+            if(indexed.containsKey(key)){
+                return null;
+            }
+            indexed.put(key, element);
+        }
+        return indexed;
+    }
+
+    /**
+     * 判断最新结果是否可以由上一结果按增量还原 保留元素的相对顺序不变，且新增元素都在保留元素之后
+     */
+    private static boolean isOrderKept(Map<Object, ?> previousElements, Map<Object, ?> currentElements) {
+        Iterator<Object> retainedKeys = previousElements.keySet().stream()
+                .filter(currentElements::containsKey).iterator();
+        boolean insertedSeen = false;
+        for(Object key : currentElements.keySet()){
+            if(!previousElements.containsKey(key)){
+                insertedSeen = true;
+            }else if(insertedSeen || !Objects.equals(retainedKeys.next(), key)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    public void setFromVersion(long fromVersion) {
+        this.fromVersion = fromVersion;
+    }
+
+    public long getToVersion() {
+        return toVersion;
+    }
+
+    public void setToVersion(long toVersion) {
+        this.toVersion = toVersion;
+    }
+
+    public List<E> getInserted() {
+        return inserted;
+    }
+
+    public void setInserted(List<E> inserted) {
+        this.inserted = inserted;
+    }
+
+    public List<E> getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(List<E> updated) {
+        this.updated = updated;
+    }
+
+    public List<Object> getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(List<Object> deleted) {
+        this.deleted = deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultDelta{" +
+                "fromVersion=" + fromVersion +
+                ", toVersion=" + toVersion +
+                ", inserted=" + inserted.size() +
+                ", updated=" + updated.size() +
+                ", deleted=" + deleted.size() +
+                '}';
+    }
+}
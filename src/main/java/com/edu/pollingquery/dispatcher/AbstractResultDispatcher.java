@@ -1,8 +1,12 @@
 package com.edu.pollingquery.dispatcher;
 
+import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.model.ActionKey;
 import com.edu.pollingquery.model.ResultWrapper;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.function.Consumer;
+
 /**
  * 抽象结果派发器
  *
@@ -12,15 +16,56 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public abstract class AbstractResultDispatcher<T> {
 
+    /**
+     * 请求因结果版本未变化重新入队后的回调，用于安排再次查询
+     */
+    private volatile Consumer<ActionKey> reparkListener;
+
     /**
      * 接收处理结果执行派发处理
      * @param resultWrapper 结果
      */
     public abstract void acceptResult(ResultWrapper<T> resultWrapper);
 
+    /**
+     * 在调用线程上接收并派发处理结果 调用方已经按动作串行提交结果时使用，避免再次切换到派发线程
+     * 默认与{@link #acceptResult(ResultWrapper)}相同
+     * @param resultWrapper 结果
+     */
+    public void acceptResultInline(ResultWrapper<T> resultWrapper) {
+        acceptResult(resultWrapper);
+    }
+
     /**
      * 通知返回查询绑定结果
      * @param resultWrapper 查询结果
      */
     public abstract int processAndDispatchReturnResult(ResultWrapper<T> resultWrapper);
+
+    /**
+     * 使用已有的查询结果直接加工并返回单个请求（如缓存结果）
+     * @param requestHolder 请求
+     * @param resultWrapper 查询结果
+     * @return 客户端已获取该版本的结果、未返回时为false，调用方需将请求入队等待结果变化
+     */
+    public abstract boolean processAndDispatchResult(BoundResultRequestContextHolder<T> requestHolder, ResultWrapper<T> resultWrapper);
+
+    /**
+     * 设置请求重新入队后的回调
+     * @param reparkListener 回调，参数为动作编码
+     */
+    public void setReparkListener(Consumer<ActionKey> reparkListener) {
+        this.reparkListener = reparkListener;
+    }
+
+    /**
+     * 通知动作有请求因结果版本未变化重新入队
+     * @param actionCode 动作编码
+     */
+    protected void notifyReparked(ActionKey actionCode) {
+        Consumer<ActionKey> listener = this.reparkListener;
+        if(listener != null){
+            listener.accept(actionCode);
+        }
+    }
 }
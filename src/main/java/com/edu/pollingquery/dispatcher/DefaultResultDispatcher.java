@@ -1,25 +1,44 @@
 package com.edu.pollingquery.dispatcher;
 
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.ActionEvictionListener;
 import com.edu.pollingquery.context.BoundRelationContextHolder;
 import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.context.PendingRequestQueue;
+import com.edu.pollingquery.delta.DeltaKeyExtractor;
+import com.edu.pollingquery.delta.ResultDelta;
+import com.edu.pollingquery.encoding.SharedResultEncoder;
+import com.edu.pollingquery.model.ActionKey;
 import com.edu.pollingquery.model.ResultWrapper;
+import com.edu.pollingquery.model.ViewKey;
+import com.edu.pollingquery.processor.ProcessingContext;
+import com.edu.pollingquery.processor.ProcessingKey;
+import com.edu.pollingquery.processor.ProcessingKeyExtractor;
 import com.edu.pollingquery.processor.chain.AbstractProcessorChain;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 
 /**
  * 结果派发者默认实现
@@ -29,81 +48,215 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 @Slf4j
 @Component
-public class DefaultResultDispatcher<T> extends AbstractResultDispatcher<T>{
+public class DefaultResultDispatcher<T> extends AbstractResultDispatcher<T> implements ActionEvictionListener, DisposableBean {
+
+    private BoundRelationContextHolder<T> boundRelationContext;
 
     /**
-     * Lock used for processResult operations
+     * 动作结果派发信箱映射 每个动作只保留一个待派发的结果
      */
-    private final ReentrantLock lock;
+    private final Map<ActionKey, ActionMailbox> ACTION_MAILBOX_MAP = new ConcurrentHashMap<>();
 
-    private BoundRelationContextHolder<T> boundRelationContext;
+    /**
+     * 视图结果派发处理与线程池映射
+     */
+    private static final Map<ViewKey, AsyncTaskExecutor> VIEW_SEND_RESULT_MAP = new ConcurrentHashMap<>();
 
     /**
-     * 请求编号与请求结果处理线程池映射 一个ACTION对应多个VIEW
+     * 所有动作共享的结果派发线程池 每个动作同时最多一个派发任务，队列长度不超过动作数量
      */
-    private static final Map<String, AsyncTaskExecutor> ACTION_RESULT_HANDLER_MAP = new ConcurrentHashMap<>();
+    private final ThreadPoolTaskExecutor dispatchExecutor;
 
     /**
-     * 视图结果派发处理与线程池映射
+     * 无法用增量表示时的占位增量结果
+     */
+    private static final ResultDelta<?> NO_DELTA = new ResultDelta<>();
+
+    /**
+     * 动作加工结果映射 结果版本未变化时复用相同加工分组标识的加工结果
+     */
+    private final Map<ActionKey, ProcessedResults> ACTION_PROCESSED_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 结果加工线程池 一轮派发的加工分组较多时各分组并行加工，并行度不大于1时为空
+     */
+    private final ForkJoinPool processingPool;
+
+    /**
+     * 并行加工的加工分组数阈值
+     */
+    private final int parallelThreshold;
+
+    /**
+     * 结果版本未变化时是否复用加工结果
+     */
+    private final boolean reuseProcessedResult;
+
+    /**
+     * 每个动作最多保留的加工结果数量
      */
-    private static final Map<String, AsyncTaskExecutor> VIEW_SEND_RESULT_MAP = new ConcurrentHashMap<>();
+    private final int maxProcessedResults;
+
+    /**
+     * 增量结果的元素主键提取器，未配置时使用元素本身作为主键
+     */
+    private DeltaKeyExtractor deltaKeyExtractor;
+
+    /**
+     * 共享结果编码器，未配置时一次编码模式不生效
+     */
+    private SharedResultEncoder resultEncoder;
+
+    /**
+     * 结果加工分组标识提取器，未配置时按处理器类型、用户和部门分组
+     */
+    private ProcessingKeyExtractor processingKeyExtractor = ProcessingKey::ofUserContext;
 
     private AbstractProcessorChain<T> processorChain;
 
-    public DefaultResultDispatcher(AbstractProcessorChain<T> processorChain, BoundRelationContextHolder<T> boundRelationContext) {
+    public DefaultResultDispatcher(AbstractProcessorChain<T> processorChain, BoundRelationContextHolder<T> boundRelationContext,
+                                   PollingQueryProperties properties) {
         this.processorChain = processorChain;
         this.boundRelationContext = boundRelationContext;
-        lock = new ReentrantLock();
+        this.dispatchExecutor = createDispatchThreadPool(properties.getDispatch().getThreads());
+        this.reuseProcessedResult = properties.getDispatch().isReuseProcessedResult();
+        this.maxProcessedResults = properties.getDispatch().getMaxProcessedResults();
+        this.processingPool = createProcessingPool(properties.getDispatch().getProcessingParallelism());
+        this.parallelThreshold = Math.max(1, properties.getDispatch().getParallelThreshold());
+    }
+
+    @Autowired(required = false)
+    public void setDeltaKeyExtractor(DeltaKeyExtractor deltaKeyExtractor) {
+        this.deltaKeyExtractor = deltaKeyExtractor;
+    }
+
+    @Autowired(required = false)
+    public void setProcessingKeyExtractor(ProcessingKeyExtractor processingKeyExtractor) {
+        this.processingKeyExtractor = processingKeyExtractor;
+    }
+
+    @Autowired(required = false)
+    public void setResultEncoder(SharedResultEncoder resultEncoder) {
+        this.resultEncoder = resultEncoder;
     }
 
     /**
-     * 接收处理结果执行派发处理
+     * 接收处理结果执行派发处理 结果放入动作信箱，信箱中已有待派发结果时只保留序号更大的结果
+     * 序号更大的结果可以返回给序号更小的结果能返回的所有请求，因此合并不会遗漏任何等待中的请求
      * @param resultWrapper 结果
      */
     @Override
     public void acceptResult(ResultWrapper<T> resultWrapper){
+        ActionMailbox mailbox = offerToMailbox(resultWrapper);
+        if(mailbox != null){
+            dispatchExecutor.execute(() -> drainMailbox(mailbox));
+        }
+    }
+
+    /**
+     * 接收处理结果并在调用线程上派发 信箱已由其他线程派发时只合并结果
+     * @param resultWrapper 结果
+     */
+    @Override
+    public void acceptResultInline(ResultWrapper<T> resultWrapper){
+        ActionMailbox mailbox = offerToMailbox(resultWrapper);
+        if(mailbox != null){
+            drainMailbox(mailbox);
+        }
+    }
+
+    /**
+     * 结果放入动作信箱
+     * @param resultWrapper 结果
+     * @return 需要由调用方安排派发的信箱，信箱已在派发或结果已被覆盖时返回null
+     */
+    private ActionMailbox offerToMailbox(ResultWrapper<T> resultWrapper){
         if(resultWrapper.getActionCode() == null){
-            return;
+            return null;
+        }
+        ActionMailbox mailbox = obtainMailbox(resultWrapper.getActionCode());
+        synchronized (mailbox) {
+            if(resultWrapper.getSequence() <= mailbox.dispatchedSequence){
+                //更新的结果已经派发，本结果可以返回的请求都已经处理
+                if(log.isTraceEnabled()){
+                    log.trace("结果已被更新的结果覆盖: actionCode={}, sequence={}"
+                            , resultWrapper.getActionCode(), resultWrapper.getSequence());
+                }
+                return null;
+            }
+            if(mailbox.latest == null || mailbox.latest.getSequence() < resultWrapper.getSequence()){
+                mailbox.latest = resultWrapper;
+            }
+            if(mailbox.scheduled){
+                return null;
+            }
+            mailbox.scheduled = true;
         }
-        AsyncTaskExecutor executor = doGetBindResultHandlerThreadPool(resultWrapper.getActionCode());
+        return mailbox;
+    }
 
-        executor.execute(() -> {
+    /**
+     * 依次派发信箱中的结果，直到信箱为空
+     * @param mailbox 动作信箱
+     */
+    private void drainMailbox(ActionMailbox mailbox){
+        while (true) {
+            ResultWrapper<T> resultWrapper;
+            synchronized (mailbox) {
+                resultWrapper = mailbox.latest;
+                if(resultWrapper == null){
+                    mailbox.scheduled = false;
+                    return;
+                }
+                mailbox.latest = null;
+                mailbox.dispatchedSequence = resultWrapper.getSequence();
+            }
             if(log.isTraceEnabled()){
-                log.trace("分配处理结果开始: actionCode={}, startTime={}"
-                        , resultWrapper.getActionCode(), resultWrapper.getStartTime());
+                log.trace("分配处理结果开始: actionCode={}, sequence={}"
+                        , resultWrapper.getActionCode(), resultWrapper.getSequence());
             }
-            int num = processAndDispatchReturnResult(resultWrapper);
-            if(log.isTraceEnabled()) {
-                log.trace("分配处理结果结束: actionCode={}, startTime={}, 处理条数：{}"
-                        , resultWrapper.getActionCode(), resultWrapper.getStartTime(), num);
+            try {
+                int num = processAndDispatchReturnResult(resultWrapper);
+                if(log.isTraceEnabled()) {
+                    log.trace("分配处理结果结束: actionCode={}, sequence={}, 处理条数：{}"
+                            , resultWrapper.getActionCode(), resultWrapper.getSequence(), num);
+                }
+            } catch (Exception e) {
+                log.error("分配处理结果失败！actionCode:" + resultWrapper.getActionCode(), e);
             }
-        });
+        }
+    }
+
+    private ActionMailbox obtainMailbox(ActionKey actionCode){
+        ActionMailbox mailbox = ACTION_MAILBOX_MAP.get(actionCode);
+        return mailbox != null ? mailbox : ACTION_MAILBOX_MAP.computeIfAbsent(actionCode, key -> new ActionMailbox());
     }
 
     /**
-     * 获取执行动作结果派发处理线程池
-     * @param actionCode 动作编号
-     * @return 线程池
+     * 创建结果加工线程池
+     * @param parallelism 并行度
+     * @return 线程池，并行度不大于1时返回null
      */
-    public AsyncTaskExecutor doGetBindResultHandlerThreadPool(String actionCode){
-        AsyncTaskExecutor executor = ACTION_RESULT_HANDLER_MAP.get(actionCode);
-        if(executor != null){
-            return executor;
-        }else {
-            ACTION_RESULT_HANDLER_MAP.putIfAbsent(actionCode, createResultHandlerThreadPool(actionCode));
-            return ACTION_RESULT_HANDLER_MAP.get(actionCode);
+    private ForkJoinPool createProcessingPool(int parallelism){
+        if(parallelism <= 1){
+            return null;
         }
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("pollingQuery-processing-executor-" + thread.getPoolIndex());
+            return thread;
+        }, (t, e) -> log.error(t + " throws exception: " + e, e), false);
     }
 
     /**
-     * 创建结果加工线程池执行器
-     * @param actionCode 动作代号
+     * 创建共享的结果派发线程池执行器
+     * @param threads 线程数
      * @return 执行器
      */
-    private AsyncTaskExecutor createResultHandlerThreadPool(String actionCode){
+    private ThreadPoolTaskExecutor createDispatchThreadPool(int threads){
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         //线程名称前缀
-        executor.setThreadNamePrefix(actionCode + "-dispatch-executor-");
+        executor.setThreadNamePrefix("pollingQuery-dispatch-executor-");
         //线程创建工厂 匿名内部类实现
         executor.setThreadFactory(new CustomizableThreadFactory(executor.getThreadNamePrefix()) {
             @Override
@@ -114,13 +267,11 @@ public class DefaultResultDispatcher<T> extends AbstractResultDispatcher<T>{
                 return t;
             }
         });
-        //定义核心线程数
-        executor.setCorePoolSize(3);
-        executor.setMaxPoolSize(3);
-        executor.setQueueCapacity(2);
+        executor.setDaemon(true);
+        //定义核心线程数 队列长度受动作数量限制，无需拒绝策略
+        executor.setCorePoolSize(Math.max(1, threads));
+        executor.setMaxPoolSize(Math.max(1, threads));
         executor.setKeepAliveSeconds(0);
-        //设置拒绝处理策略为DiscardOldestPolicy
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardOldestPolicy());
         executor.initialize();
         return executor;
     }
@@ -128,37 +279,42 @@ public class DefaultResultDispatcher<T> extends AbstractResultDispatcher<T>{
     @Override
     public int processAndDispatchReturnResult(ResultWrapper<T> resultWrapper) {
         //查询结果编号
-        String queryActionCode = resultWrapper.getActionCode();
+        ActionKey queryActionCode = resultWrapper.getActionCode();
         //查询结果数据集
         T handlerResult = resultWrapper.getResult();
         if(handlerResult == null){
             log.error("查询结果返回为空!");
         }
-        Set<String> relationCodeSet = boundRelationContext.getViewsByActionCode(queryActionCode);
+        Set<ViewKey> relationCodeSet = boundRelationContext.getViewsByActionCode(queryActionCode);
         if(CollectionUtils.isEmpty(relationCodeSet)){
             log.error("未配置对应关系集合，查询结果被忽略!");
             return 0;
         }
-        Date startTime = resultWrapper.getStartTime();
-        if(startTime == null){
-            log.error("请求时间为null，忽略该结果!");
+        long sequence = resultWrapper.getSequence();
+        if(sequence <= 0){
+            log.error("查询轮次序号无效，忽略该结果!");
             return 0;
         }
-        //声明返回查询条数
-        int num;
         //进行结果处理
-        try{
-            if(log.isTraceEnabled()) {
-                log.trace("根据查询事件动作关系分派结果：startTime={}, actionCode={},relationViewCodeSet={}",
-                        startTime, queryActionCode, relationCodeSet);
-            }
-            num = processAndDispatchResult(startTime, relationCodeSet, handlerResult);
-        } finally {
-            //清理上下文中的线程变量
-            processorChain.clearContext();
+        if(log.isTraceEnabled()) {
+            log.trace("根据查询事件动作关系分派结果：sequence={}, actionCode={},relationViewCodeSet={}",
+                    sequence, queryActionCode, relationCodeSet);
         }
+        return processAndDispatchResult(resultWrapper, relationCodeSet);
+    }
 
-        return num;
+    @Override
+    public boolean processAndDispatchResult(BoundResultRequestContextHolder<T> requestHolder, ResultWrapper<T> resultWrapper) {
+        if(requestHolder.isSetOrExpired()){
+            return true;
+        }
+        //客户端已经获取过该版本的结果，由调用方入队等待结果变化
+        if(requestHolder.hasSeenVersion(resultWrapper.getVersion())){
+            return false;
+        }
+        sendResult(requestHolder, resultWrapper.getVersion(), process(resultWrapper, requestHolder,
+                processingKeyExtractor.extract(requestHolder), newProcessingContext(resultWrapper), null));
+        return true;
     }
 
     /**
@@ -166,7 +322,7 @@ public class DefaultResultDispatcher<T> extends AbstractResultDispatcher<T>{
      * @param viewCode 视图编号
      * @return 线程池
      */
-    public AsyncTaskExecutor doGetBindSendResultThreadPool(String viewCode){
+    public AsyncTaskExecutor doGetBindSendResultThreadPool(ViewKey viewCode){
         AsyncTaskExecutor executor = VIEW_SEND_RESULT_MAP.get(viewCode);
         if(executor != null){
             return executor;
@@ -181,7 +337,7 @@ public class DefaultResultDispatcher<T> extends AbstractResultDispatcher<T>{
      * @param viewCode 视图编号
      * @return 执行器
      */
-    private AsyncTaskExecutor createSendResultThreadPool(String viewCode){
+    private AsyncTaskExecutor createSendResultThreadPool(ViewKey viewCode){
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         //线程名称前缀
         executor.setThreadNamePrefix(viewCode + "-send-result-executor-");
@@ -201,126 +357,371 @@ public class DefaultResultDispatcher<T> extends AbstractResultDispatcher<T>{
         executor.setMaxPoolSize(machineProcessors);
         executor.setQueueCapacity(20);
         executor.setKeepAliveSeconds(30);
-        //设置拒绝处理策略为CallerRunsPolicy
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        //拒绝时由提交线程直接发送 与CallerRunsPolicy不同，线程池因视图被回收而关闭后任务同样执行，避免请求收不到结果
+        executor.setRejectedExecutionHandler((task, threadPool) -> task.run());
         executor.initialize();
         return executor;
     }
 
+    /**
+     * 回收空闲动作的结果信箱以及视图的结果发送线程池
+     * @param actionCode 被回收的动作编码
+     * @param viewCodes 动作绑定的视图编码
+     */
+    @Override
+    public void onActionEvicted(ActionKey actionCode, Set<ViewKey> viewCodes) {
+        ACTION_MAILBOX_MAP.remove(actionCode);
+        ACTION_PROCESSED_MAP.remove(actionCode);
+        for(ViewKey viewCode : viewCodes){
+            shutdownExecutor(VIEW_SEND_RESULT_MAP.remove(viewCode));
+        }
+    }
+
+    /**
+     * 关闭线程池 已提交的任务会继续执行完成，关闭后提交的任务由提交线程直接执行
+     * @param executor 线程池
+     */
+    private void shutdownExecutor(AsyncTaskExecutor executor){
+        if(executor instanceof ThreadPoolTaskExecutor){
+            ((ThreadPoolTaskExecutor) executor).getThreadPoolExecutor().shutdown();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        dispatchExecutor.shutdown();
+        VIEW_SEND_RESULT_MAP.values().forEach(this::shutdownExecutor);
+        if(processingPool != null){
+            processingPool.shutdown();
+        }
+    }
+
     /**
      * 处理结果并分发
-     * @param startTime 请求开始时间
+     * @param resultWrapper 查询结果
      * @param relationCodeSet 关系集合
-     * @param handlerResult 待加工结果
      * @return 处理结果数量
      */
-    @SuppressWarnings("rawtypes")
-    private int processAndDispatchResult(Date startTime, Set<String> relationCodeSet, T handlerResult){
+    private int processAndDispatchResult(ResultWrapper<T> resultWrapper, Set<ViewKey> relationCodeSet){
+        long sequence = resultWrapper.getSequence();
+        long version = resultWrapper.getVersion();
+        T handlerResult = resultWrapper.getResult();
         int num = 0;
-        Map<String, Queue<BoundResultRequestContextHolder<T>>> waitForProcessResultMap = new HashMap<>();
+        int reparkCnt = 0;
+        Map<ViewKey, List<BoundResultRequestContextHolder<T>>> waitForProcessResultMap = new HashMap<>(relationCodeSet.size());
         //----------------------------------------------提取可以返回的结果-START------------------------------------------
-        //循环处理结果可以返回的多个视图绑定请求集合
-        for(String code : relationCodeSet){
-            Queue<BoundResultRequestContextHolder<T>> boundResultQueue = boundRelationContext.getViewBoundResultQueueByViewCode(code);
-            if(CollectionUtils.isEmpty(boundResultQueue)){
+        //循环处理结果可以返回的多个视图绑定请求集合 每个视图队列独立批量取出，不同视图之间互不竞争
+        for(ViewKey code : relationCodeSet){
+            PendingRequestQueue<T> boundResultQueue = boundRelationContext.getViewBoundResultQueueByViewCode(code);
+            if(boundResultQueue == null || boundResultQueue.isEmpty()){
                 continue;
             }
-            int size = boundResultQueue.size();
-            if(log.isTraceEnabled()) {
-                log.trace("轮询查询请求对应viewCode：{} 的绑定结果：{}条待处理。", code, size);
-            }
-            //处理次数, 可以处理的绑定结果, 处理出错条数
-            int processTimes = 0, boundCurrentResultCnt = 0, processErrCnt = 0;
             //存放[取出的可以分配的待处理请求]队列
-            Queue<BoundResultRequestContextHolder<T>> waitForProcessResultQueue = new LinkedList<>();
-            waitForProcessResultMap.put(code, waitForProcessResultQueue);
-            //循环处理取出可以分配的请求绑定
-            while(!boundResultQueue.isEmpty() && processTimes <= size) {
-                final ReentrantLock lock = this.lock;
-                lock.lock();
-                try {
-                    BoundResultRequestContextHolder boundResultRequestHolder = boundResultQueue.peek();
-                    if (boundResultRequestHolder == null) {
-                        if(!boundResultQueue.isEmpty()) {
-                            //获取的结果如果为null直接退队
-                            boundResultQueue.poll();
-                        }
-                        lock.unlock();
-                        log.warn("绑定请求结果为null，请检查处理逻辑!");
-                        continue;
-                    }
-                    if (log.isTraceEnabled()) {
-                        log.trace("Q轮询查询请求绑定结果处理开始，请求开始时间：{},查询动作开始时间：{}",
-                                boundResultRequestHolder.getReqStartTime().getTime(), startTime.getTime());
-                    }
-                    if (boundResultRequestHolder.getReqStartTime() == null) {
-                        BoundResultRequestContextHolder result = boundResultQueue.poll();
-                        lock.unlock();
-                        if (result != null) {
-                            result.setErrorResult(new Exception("无法获取到请求时间！"));
-                            //增加错误的处理计数
-                            ++processErrCnt;
-                            //增加总处理计数,可以处理的绑定结果计数
-                            ++num; ++boundCurrentResultCnt;
-                        }
-                    } else if (!boundResultRequestHolder.getReqStartTime().after(startTime)) {
-                        //正常获取到结果返回
-                        BoundResultRequestContextHolder<T> result = boundResultQueue.poll();
-                        lock.unlock();
-                        waitForProcessResultQueue.offer(result);
-                        //增加总处理计数,可以处理的绑定结果计数
-                        ++num; ++boundCurrentResultCnt;
-                    } else if (boundResultRequestHolder.getReqStartTime().after(startTime)) {
-                        //获取的请求是当前查询结果开始时间后入队的，不处理，由于是有序队列后面的无需再判断
-                        break;
-                    } else {
-                        log.error("发现无法正确处理的请求！");
-                        break;
-                    }
-                } finally {
-                    //增加处理次数
-                    ++processTimes;
-                    if(lock.isLocked()) {
-                        lock.unlock();
-                    }
-                }
-            }
+            List<BoundResultRequestContextHolder<T>> waitForProcessResultQueue = new ArrayList<>();
+            //取出查询开始前入队的所有请求，由于队列按序号有序，遇到序号更大的请求即停止
+            int boundCurrentResultCnt = boundResultQueue.drainTo(sequence, waitForProcessResultQueue);
             if(log.isTraceEnabled()) {
                 log.trace("发现轮询查询请求对应viewCode：{} 的绑定结果：{}条。", code, boundCurrentResultCnt);
-                if(processErrCnt > 0) {
-                    log.trace("处理轮询查询无法获取到请求时间对应viewCode：{} 的绑定结果：{}条。", code, processErrCnt);
-                }
+            }
+            if(boundCurrentResultCnt > 0){
+                waitForProcessResultMap.put(code, waitForProcessResultQueue);
+                num += boundCurrentResultCnt;
             }
         }
         //----------------------------------------------提取可以返回的结果-END--------------------------------------------
-        //循环加工请求结果并返回
-        for(Map.Entry<String, Queue<BoundResultRequestContextHolder<T>>> entry : waitForProcessResultMap.entrySet()) {
-            int processCnt = 0;
+        //按加工分组标识对请求分组，同一分组的请求只加工一次
+        Map<ProcessingKey, List<PendingDispatch>> processingGroups = new LinkedHashMap<>();
+        for(Map.Entry<ViewKey, List<BoundResultRequestContextHolder<T>>> entry : waitForProcessResultMap.entrySet()) {
             for (BoundResultRequestContextHolder<T> boundResultRequestHolder : entry.getValue()) {
-                //----------------------加工结果-START-----------------------
-                //处理待返回结果
-                T handledResult = processorChain.doProcess(boundResultRequestHolder, handlerResult);
-                //----------------------加工结果-END-------------------------
-                if (boundResultRequestHolder != null && !boundResultRequestHolder.isSetOrExpired()) {
-                    //----------------------分发结果-START-----------------------
-                    //异步分发结果
-                    doGetBindSendResultThreadPool(entry.getKey()).submit(() -> {
-                        boundResultRequestHolder.setResult(handledResult);
-                    });
-                    //----------------------分发结果-END-------------------------
-                    ++processCnt;
-                    if (log.isTraceEnabled()) {
-                        long sl = System.currentTimeMillis();
-                        log.trace("FQ轮询查询请求绑定结果处理完成，请求开始时间：{},查询动作开始时间：{},完成时间：{},处理耗时：{}ms",
-                                boundResultRequestHolder.getReqStartTime().getTime(), startTime.getTime(), sl,
-                                sl - boundResultRequestHolder.getReqStartTime().getTime());
-                    }
+                //已经结束（超时）的请求无需加工
+                if (boundResultRequestHolder == null || boundResultRequestHolder.isSetOrExpired()) {
+                    continue;
+                }
+                //客户端已经获取过该版本的结果，重新入队等待结果变化
+                if (boundResultRequestHolder.hasSeenVersion(version)
+                        && reparkRequest(resultWrapper.getActionCode(), entry.getKey(), boundResultRequestHolder)) {
+                    ++reparkCnt;
+                    continue;
+                }
+                processingGroups.computeIfAbsent(processingKeyExtractor.extract(boundResultRequestHolder),
+                        key -> new ArrayList<>()).add(new PendingDispatch(entry.getKey(), boundResultRequestHolder));
+            }
+        }
+        //本轮所有请求共享同一个加工上下文，加工分组标识相同的请求共享加工结果
+        ProcessingContext processingContext = newProcessingContext(resultWrapper);
+        Map<ProcessingKey, T> groupResults = new ConcurrentHashMap<>();
+        if(processingPool != null && processingGroups.size() >= parallelThreshold){
+            //分组较多时各分组并行加工，派发线程等待本轮加工完成，保证同一动作的结果依次派发
+            List<Callable<Void>> processingTasks = new ArrayList<>(processingGroups.size());
+            for(Map.Entry<ProcessingKey, List<PendingDispatch>> group : processingGroups.entrySet()){
+                processingTasks.add(() -> {
+                    processAndDispatchGroup(resultWrapper, group.getKey(), group.getValue(), processingContext, groupResults);
+                    return null;
+                });
+            }
+            for(Future<Void> future : processingPool.invokeAll(processingTasks)){
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("结果加工失败！actionCode:" + resultWrapper.getActionCode(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
+        }else {
+            for(Map.Entry<ProcessingKey, List<PendingDispatch>> group : processingGroups.entrySet()){
+                processAndDispatchGroup(resultWrapper, group.getKey(), group.getValue(), processingContext, groupResults);
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("处理轮询查询请求绑定结果：actionCode={}, 加工分组：{}个。", resultWrapper.getActionCode(), processingGroups.size());
+        }
+        if (reparkCnt > 0) {
             if (log.isTraceEnabled()) {
-                log.trace("处理轮询查询请求对应viewCode：{} 的绑定结果：{}条。", entry.getKey(), processCnt);
+                log.trace("结果版本未变化，请求重新入队：actionCode={}, version={}, 条数：{}",
+                        resultWrapper.getActionCode(), version, reparkCnt);
             }
+            notifyReparked(resultWrapper.getActionCode());
         }
         return num;
     }
+
+    /**
+     * 加工一个加工分组的请求结果并异步分发
+     * @param resultWrapper 查询结果
+     * @param processingKey 加工分组标识
+     * @param group 分组中的请求
+     * @param processingContext 本轮加工上下文
+     * @param groupResults 本轮各加工分组的加工结果
+     */
+    private void processAndDispatchGroup(ResultWrapper<T> resultWrapper, ProcessingKey processingKey,
+                                         List<PendingDispatch> group, ProcessingContext processingContext,
+                                         Map<ProcessingKey, T> groupResults){
+        long version = resultWrapper.getVersion();
+        for(PendingDispatch pending : group){
+            BoundResultRequestContextHolder<T> boundResultRequestHolder = pending.requestHolder;
+            //----------------------加工结果-START-----------------------
+            //处理待返回结果
+            Object handledResult = process(resultWrapper, boundResultRequestHolder, processingKey,
+                    processingContext, groupResults);
+            //----------------------加工结果-END-------------------------
+            //----------------------分发结果-START-----------------------
+            //异步分发结果
+            doGetBindSendResultThreadPool(pending.viewCode).execute(() ->
+                    sendResult(boundResultRequestHolder, version, handledResult));
+            //----------------------分发结果-END-------------------------
+            if (log.isTraceEnabled()) {
+                long sl = System.currentTimeMillis();
+                log.trace("FQ轮询查询请求绑定结果处理完成，请求序号：{},查询轮次序号：{},完成时间：{},处理耗时：{}ms",
+                        boundResultRequestHolder.getSequence(), resultWrapper.getSequence(), sl,
+                        sl - boundResultRequestHolder.getReqStartTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * 加工请求结果 同一轮中加工分组标识相同的请求只加工一次
+     * 结果版本与上次加工时相同时，直接复用相同加工分组标识的加工结果
+     * 请求使用增量模式且已获取上一版本的结果时，返回两个版本加工结果之间的增量
+     * @param resultWrapper 查询结果
+     * @param requestHolder 请求
+     * @param processingKey 请求的加工分组标识
+     * @param processingContext 本轮加工上下文
+     * @param groupResults 本轮各加工分组的加工结果，为空时不分组
+     * @return 加工后的结果或增量结果
+     */
+    private Object process(ResultWrapper<T> resultWrapper, BoundResultRequestContextHolder<T> requestHolder,
+                           ProcessingKey processingKey, ProcessingContext processingContext,
+                           Map<ProcessingKey, T> groupResults){
+        if(resultWrapper.getResult() == null){
+            return processorChain.doProcess(requestHolder, null, processingContext);
+        }
+        VersionOutputs outputs = reuseProcessedResult && resultWrapper.getVersion() > 0L ?
+                ACTION_PROCESSED_MAP.computeIfAbsent(resultWrapper.getActionCode(), key -> new ProcessedResults())
+                        .forVersion(resultWrapper.getVersion()) : null;
+        T handledResult = groupResults == null ? null : groupResults.get(processingKey);
+        if(handledResult == null && outputs != null){
+            handledResult = outputs.results.get(processingKey);
+            if(handledResult != null && log.isTraceEnabled()){
+                log.trace("结果版本未变化，复用加工结果：actionCode={}, version={}, processingKey={}",
+                        resultWrapper.getActionCode(), resultWrapper.getVersion(), processingKey);
+            }
+        }
+        if(handledResult == null){
+            handledResult = processorChain.doProcess(requestHolder, resultWrapper.getResult(), processingContext);
+            if(handledResult != null){
+                if(groupResults != null){
+                    groupResults.put(processingKey, handledResult);
+                }
+                if(outputs != null && outputs.results.size() < maxProcessedResults){
+                    outputs.results.putIfAbsent(processingKey, handledResult);
+                }
+            }
+        }
+        if(outputs != null && requestHolder.isDeltaMode()){
+            ResultDelta<?> delta = resolveDelta(outputs, processingKey, requestHolder, handledResult);
+            if(delta != null){
+                return delta;
+            }
+        }
+        return handledResult;
+    }
+
+    /**
+     * 创建一轮结果加工的上下文
+     * @param resultWrapper 查询结果
+     * @return 加工上下文
+     */
+    private ProcessingContext newProcessingContext(ResultWrapper<T> resultWrapper){
+        return new ProcessingContext(resultWrapper.getActionCode(), resultWrapper.getVersion());
+    }
+
+    /**
+     * 计算客户端已获取的上一版本与最新版本加工结果之间的增量 同一加工输入的增量只计算一次
+     * @param outputs 最新版本的加工结果
+     * @param processingKey 加工输入标识
+     * @param requestHolder 请求
+     * @param handledResult 最新版本的加工结果
+     * @return 增量结果，客户端已获取的不是上一版本、结果不是集合或无法用增量表示时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private ResultDelta<?> resolveDelta(VersionOutputs outputs, ProcessingKey processingKey,
+                                        BoundResultRequestContextHolder<T> requestHolder, T handledResult){
+        Long lastSeenVersion = requestHolder.getLastSeenVersion();
+        if(lastSeenVersion == null || lastSeenVersion != outputs.previousVersion || !(handledResult instanceof Collection)){
+            return null;
+        }
+        T previousResult = outputs.previousResults.get(processingKey);
+        if(!(previousResult instanceof Collection)){
+            return null;
+        }
+        //无法用增量表示时记录占位对象，同一加工分组不再重复比较，返回完整结果
+        ResultDelta<?> delta = outputs.deltas.computeIfAbsent(processingKey, key -> {
+            ResultDelta<?> between = ResultDelta.between((Collection<Object>) previousResult,
+                    (Collection<Object>) handledResult, outputs.previousVersion, outputs.version, deltaKeyExtractor);
+            return between != null ? between : NO_DELTA;
+        });
+        return delta == NO_DELTA ? null : delta;
+    }
+
+    /**
+     * 返回请求结果 增量结果和编码结果与请求的结果类型不同，以非泛型方式设置
+     * @param requestHolder 请求
+     * @param version 结果版本
+     * @param response 加工后的结果或增量结果
+     */
+    @SuppressWarnings("unchecked")
+    private void sendResult(BoundResultRequestContextHolder<T> requestHolder, long version, Object response){
+        requestHolder.setResultVersion(version);
+        if(requestHolder.isSerializeOnce() && resultEncoder != null && response != null){
+            try {
+                response = resultEncoder.encode(response, version, requestHolder.isAcceptGzip());
+            } catch (RuntimeException e) {
+                //编码失败时结束请求，避免客户端等待到超时
+                log.error("结果编码失败！viewCode:" + requestHolder.getViewCode() + ", version:" + version, e);
+                requestHolder.setErrorResult(e);
+                return;
+            }
+        }
+        ((DeferredResult<Object>) (DeferredResult<?>) requestHolder).setResult(response);
+    }
+
+    /**
+     * 请求重新放入视图队列，分配新的序号后等待后续的查询结果
+     * @param actionCode 动作编码
+     * @param viewCode 视图编码
+     * @param requestHolder 请求
+     * @return 绑定关系已被回收无法入队时返回false
+     */
+    private boolean reparkRequest(ActionKey actionCode, ViewKey viewCode, BoundResultRequestContextHolder<T> requestHolder){
+        return boundRelationContext.offerBoundResult(actionCode, viewCode, requestHolder, key -> new PendingRequestQueue<>());
+    }
+
+    /**
+     * 动作的加工结果 保留最新结果版本和上一版本的加工结果
+     */
+    private class ProcessedResults {
+
+        private VersionOutputs current = new VersionOutputs(0L, null);
+
+        /**
+         * 获取结果版本对应的加工结果 版本增大时当前版本成为上一版本，更早版本的加工结果被丢弃
+         * @param resultVersion 结果版本
+         * @return 加工结果
+         */
+        private synchronized VersionOutputs forVersion(long resultVersion){
+            if(resultVersion != current.version){
+                current = new VersionOutputs(resultVersion, resultVersion > current.version ? current : null);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * 一个结果版本的加工结果
+     */
+    private class VersionOutputs {
+
+        private final long version;
+
+        private final Map<ProcessingKey, T> results = new ConcurrentHashMap<>();
+
+        /**
+         * 上一结果版本，没有时为0
+         */
+        private final long previousVersion;
+
+        private final Map<ProcessingKey, T> previousResults;
+
+        /**
+         * 上一版本到本版本的增量结果
+         */
+        private final Map<ProcessingKey, ResultDelta<?>> deltas = new ConcurrentHashMap<>();
+
+        private VersionOutputs(long version, VersionOutputs previous) {
+            this.version = version;
+            this.previousVersion = previous == null ? 0L : previous.version;
+            this.previousResults = previous == null ? Collections.emptyMap() : previous.results;
+        }
+    }
+
+    /**
+     * 动作结果信箱 字段通过信箱对象锁保护
+     */
+    private class ActionMailbox {
+
+        /**
+         * 待派发的序号最大的结果
+         */
+        private ResultWrapper<T> latest;
+
+        /**
+         * 是否已提交派发任务
+         */
+        private boolean scheduled;
+
+        /**
+         * 最近一次派发的结果序号
+         */
+        private long dispatchedSequence;
+    }
+
+    /**
+     * 待加工分发的请求
+     */
+    private class PendingDispatch {
+
+        /**
+         * 请求所属视图
+         */
+        private final ViewKey viewCode;
+
+        private final BoundResultRequestContextHolder<T> requestHolder;
+
+        private PendingDispatch(ViewKey viewCode, BoundResultRequestContextHolder<T> requestHolder) {
+            this.viewCode = viewCode;
+            this.requestHolder = requestHolder;
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package com.edu.pollingquery.encoding;
+
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 共享结果编码器 同一个结果对象只序列化（以及压缩）一次，所有请求返回相同的字节内容
+ * 结果对象按引用缓存，加工结果复用或没有处理器时同一轮次的请求共享同一个结果对象
+ *
+ * @author jcb
+ * @since 2021/6/11
+ */
+@Slf4j
+@Component
+public class SharedResultEncoder {
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 结果对象与编码结果的映射 按引用比较，结果对象不再被使用后自动回收
+     */
+    private final Cache<Object, EncodedResult> encodedResults;
+
+    public SharedResultEncoder(ObjectProvider<ObjectMapper> objectMapperProvider, PollingQueryProperties properties) {
+        this.objectMapper = objectMapperProvider.getIfAvailable(ObjectMapper::new);
+        PollingQueryProperties.Encoding encoding = properties.getEncoding();
+        this.encodedResults = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumSize(Math.max(1L, encoding.getMaximumSize()))
+                .expireAfterAccess(encoding.getExpireAfterAccess().toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 编码结果为响应 ETag为结果版本
+     * @param result 加工后的结果
+     * @param version 结果版本，为0时不设置ETag
+     * @param gzip 是否返回gzip压缩后的内容
+     * @return 响应
+     */
+    public ResponseEntity<byte[]> encode(Object result, long version, boolean gzip) {
+        EncodedResult encodedResult;
+        try {
+            encodedResult = encodedResults.get(result, () -> new EncodedResult(objectMapper.writeValueAsBytes(result)));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("序列化查询结果失败！", e.getCause());
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+        if(version > 0L){
+            headers.setETag("\"" + version + "\"");
+        }
+        if(gzip){
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return new ResponseEntity<>(encodedResult.gzipped(), headers, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(encodedResult.json, headers, HttpStatus.OK);
+    }
+
+    /**
+     * 编码结果 压缩内容在首次需要时生成
+     */
+    private static class EncodedResult {
+
+        private final byte[] json;
+
+        private volatile byte[] gzipped;
+
+        private EncodedResult(byte[] json) {
+            this.json = json;
+        }
+
+        private byte[] gzipped() {
+            byte[] bytes = gzipped;
+            if(bytes == null){
+                synchronized (this) {
+                    bytes = gzipped;
+                    if(bytes == null){
+                        bytes = gzip(json);
+                        gzipped = bytes;
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        private static byte[] gzip(byte[] json) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, json.length / 4));
+            try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                gzipOut.write(json);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
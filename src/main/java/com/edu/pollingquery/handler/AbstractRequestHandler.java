@@ -1,6 +1,7 @@
 package com.edu.pollingquery.handler;
 
 import com.edu.pollingquery.context.Command;
+import com.edu.pollingquery.model.ActionKey;
 
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -17,5 +18,25 @@ public abstract class AbstractRequestHandler<T> {
      * @param actionCode 动作编号
      * @param func 动作的方法
      */
-    public abstract void registerAction(String actionCode, Command<T> func, Object param);
+    public abstract void registerAction(ActionKey actionCode, Command<T> func, Object param);
+
+    /**
+     * 强制刷新动作的查询结果 即使没有等待的请求也执行一轮查询
+     * @param actionCode 动作编号
+     * @param func 动作的方法
+     */
+    public abstract void refreshAction(ActionKey actionCode, Command<T> func, Object param);
+
+    /**
+     * 订阅动作 存在订阅时动作按计划定时查询，不再由请求触发
+     * @param actionCode 动作编号
+     * @param func 动作的方法
+     */
+    public abstract void subscribeAction(ActionKey actionCode, Command<T> func, Object param);
+
+    /**
+     * 取消订阅动作
+     * @param actionCode 动作编号
+     */
+    public abstract void unsubscribeAction(ActionKey actionCode);
 }
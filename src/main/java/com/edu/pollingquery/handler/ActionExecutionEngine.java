@@ -0,0 +1,235 @@
+package com.edu.pollingquery.handler;
+
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.ActionEvictionListener;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ViewKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询动作执行引擎 所有动作共享一个固定大小的执行线程池，查询命令通常阻塞于IO，每个执行中的查询占用一个线程
+ * 每个动作同时执行的查询数不超过配置的并发数，同时最多保留一次待执行的查询，待执行的查询开始时读取最新序号，覆盖此前到达的所有请求
+ * 执行期间到达的请求在执行结束后由一次尾随查询处理，不会因提交被丢弃而等待到超时
+ * 合并等待通过调度器延迟提交实现，等待期间不占用执行线程
+ *
+ * @author jcb
+ * @since 2021/5/24
+ */
+@Slf4j
+@Component
+public class ActionExecutionEngine implements ActionEvictionListener, DisposableBean {
+
+    /**
+     * 动作执行槽位
+     */
+    private final Map<ActionKey, ActionSlot> ACTION_SLOT_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 共享执行线程池
+     */
+    private final ThreadPoolTaskExecutor executor;
+
+    /**
+     * 延迟调度器
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 单个动作最大并发执行数
+     */
+    private final int maxConcurrencyPerAction;
+
+    public ActionExecutionEngine(PollingQueryProperties properties) {
+        PollingQueryProperties.Execution execution = properties.getExecution();
+        this.maxConcurrencyPerAction = Math.max(1, execution.getMaxConcurrencyPerAction());
+        this.executor = createActionThreadPool(execution.getParallelism());
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("pollingQuery-action-scheduler-");
+        threadFactory.setDaemon(true);
+        ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduledExecutor;
+    }
+
+    /**
+     * 提交动作查询 同一动作最多一个执行中的查询和一个待执行的查询
+     * 执行期间到达的提交会标记动作为脏，执行结束后补充执行一次尾随查询，保证执行期间入队的请求不会丢失唤醒
+     * @param actionCode 动作编码
+     * @param delayMillis 执行前的等待时间（毫秒）
+     * @param task 查询任务
+     * @return 已存在待执行的查询时本次提交由该查询覆盖，返回false
+     */
+    public boolean submit(ActionKey actionCode, long delayMillis, Runnable task) {
+        ActionSlot slot = obtainSlot(actionCode);
+        synchronized (slot) {
+            slot.task = task;
+            if(slot.scheduled){
+                return false;
+            }
+            if(slot.running >= maxConcurrencyPerAction){
+                slot.dirty = true;
+                return true;
+            }
+            slot.scheduled = true;
+        }
+        if(delayMillis > 0L){
+            scheduler.schedule(() -> start(slot), delayMillis, TimeUnit.MILLISECONDS);
+        }else{
+            start(slot);
+        }
+        return true;
+    }
+
+    /**
+     * 创建共享的查询执行线程池
+     * @param threads 线程数
+     * @return 执行器
+     */
+    private ThreadPoolTaskExecutor createActionThreadPool(int threads){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        //线程名称前缀
+        executor.setThreadNamePrefix("pollingQuery-action-executor-");
+        //线程创建工厂 匿名内部类实现
+        executor.setThreadFactory(new CustomizableThreadFactory(executor.getThreadNamePrefix()) {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread t = createThread(runnable);
+                //设置子线程异常日志记录
+                t.setUncaughtExceptionHandler((thread, e) -> log.error(thread + " throws exception: " + e, e));
+                return t;
+            }
+        });
+        executor.setDaemon(true);
+        //定义核心线程数 每个动作同时最多占用并发数个执行位置，队列长度受动作数量限制，无需拒绝策略
+        executor.setCorePoolSize(Math.max(1, threads));
+        executor.setMaxPoolSize(Math.max(1, threads));
+        executor.setKeepAliveSeconds(0);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 获取执行中的查询数
+     * @return 执行中的查询数
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * 获取等待执行线程的查询数 持续大于0说明执行线程被慢查询占满
+     * @return 排队的查询数
+     */
+    public int getQueuedCount() {
+        return executor.getThreadPoolExecutor().getQueue().size();
+    }
+
+    /**
+     * 获取延迟调度器
+     * @return 调度器
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    private ActionSlot obtainSlot(ActionKey actionCode) {
+        ActionSlot slot = ACTION_SLOT_MAP.get(actionCode);
+        return slot != null ? slot : ACTION_SLOT_MAP.computeIfAbsent(actionCode, ActionSlot::new);
+    }
+
+    /**
+     * 等待时间已到，开始执行待执行的查询 没有空闲并发时转为尾随查询，等待执行中的查询结束
+     * @param slot 动作执行槽位
+     */
+    private void start(ActionSlot slot) {
+        Runnable task;
+        synchronized (slot) {
+            slot.scheduled = false;
+            if(slot.running >= maxConcurrencyPerAction){
+                slot.dirty = true;
+                return;
+            }
+            slot.running++;
+            task = slot.task;
+        }
+        executor.execute(() -> run(slot, task));
+    }
+
+    private void run(ActionSlot slot, Runnable task) {
+        try {
+            task.run();
+        }catch (Exception e){
+            log.error("执行查询动作失败！actionCode:" + slot.actionCode, e);
+        }finally {
+            boolean trailing = false;
+            synchronized (slot) {
+                slot.running--;
+                //执行期间有新的请求到达，补充一次尾随查询 执行耗时已起到合并等待的作用，无需再次等待
+                if(slot.dirty && !slot.scheduled){
+                    slot.dirty = false;
+                    slot.scheduled = true;
+                    trailing = true;
+                }
+            }
+            if(trailing){
+                if(log.isTraceEnabled()){
+                    log.trace("执行尾随查询：actionCode={}", slot.actionCode);
+                }
+                start(slot);
+            }
+        }
+    }
+
+    @Override
+    public void onActionEvicted(ActionKey actionCode, Set<ViewKey> viewCodes) {
+        ACTION_SLOT_MAP.remove(actionCode);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * 动作执行槽位 字段通过槽位对象锁保护
+     */
+    private static class ActionSlot {
+
+        private final ActionKey actionCode;
+
+        /**
+         * 执行中的查询数
+         */
+        private int running;
+
+        /**
+         * 是否存在已调度（等待中）的查询
+         */
+        private boolean scheduled;
+
+        /**
+         * 执行期间是否有新的请求到达，需要补充尾随查询
+         */
+        private boolean dirty;
+
+        /**
+         * 最近一次提交的查询
+         */
+        private Runnable task;
+
+        private ActionSlot(ActionKey actionCode) {
+            this.actionCode = actionCode;
+        }
+    }
+}
@@ -1,27 +1,28 @@
 package com.edu.pollingquery.handler;
 
+import com.edu.pollingquery.cache.ActionResultCache;
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.ActionEvictionListener;
 import com.edu.pollingquery.context.BoundRelationContextHolder;
 import com.edu.pollingquery.context.BoundResultRequestContextHolder;
 import com.edu.pollingquery.context.Command;
+import com.edu.pollingquery.context.PendingRequestQueue;
 import com.edu.pollingquery.dispatcher.AbstractResultDispatcher;
+import com.edu.pollingquery.handler.window.CoalescingWindowStrategy;
+import com.edu.pollingquery.metrics.ActionStatistics;
+import com.edu.pollingquery.metrics.ActionStatisticsRegistry;
+import com.edu.pollingquery.model.ActionKey;
 import com.edu.pollingquery.model.ResultWrapper;
+import com.edu.pollingquery.model.ViewKey;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.task.AsyncTaskExecutor;
-import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
-import java.util.Date;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Function;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 请求处理器默认实现
@@ -31,155 +32,195 @@ import java.util.function.Function;
  */
 @Slf4j
 @Component
-public class DefaultRequestHandler<T> extends AbstractRequestHandler<T>{
+public class DefaultRequestHandler<T> extends AbstractRequestHandler<T> implements ActionEvictionListener, DisposableBean {
 
-    private static final Map<String, AsyncTaskExecutor> ACTION_MAP = new ConcurrentHashMap<>();
+    private final ResultHandoff<T> resultHandoff;
 
-    private final BlockingQueue<ResultWrapper<T>> rstQueue = new LinkedBlockingQueue<>();
+    private BoundRelationContextHolder<T> boundRelationContext;
 
-    private static AtomicBoolean isDispatcherStarted = new AtomicBoolean(false);
+    private final ActionStatisticsRegistry statisticsRegistry;
 
-    private AbstractResultDispatcher<T> dispatcher;
+    private final CoalescingWindowStrategy windowStrategy;
 
-    private BoundRelationContextHolder<T> boundRelationContext;
+    private final ActionExecutionEngine executionEngine;
+
+    private final ActionResultCache<T> resultCache;
+
+    private final ScheduledRefresher<T> scheduledRefresher;
+
+    /**
+     * 动作最近一次请求的查询命令 用于请求因结果版本未变化重新入队后再次查询
+     */
+    private final Map<ActionKey, Command<T>> ACTION_COMMAND_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 已安排再次查询的动作
+     */
+    private final Set<ActionKey> recheckScheduledActions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 结果版本未变化时再次查询的间隔（毫秒）
+     */
+    private final long recheckIntervalMillis;
 
-    public DefaultRequestHandler(AbstractResultDispatcher<T> dispatcher, BoundRelationContextHolder<T> boundRelationContext) {
-        this.dispatcher = dispatcher;
+    /**
+     * 请求强制刷新的动作 即使没有等待的请求也执行下一轮查询
+     */
+    private final Set<ActionKey> refreshRequestedActions = ConcurrentHashMap.newKeySet();
+
+    public DefaultRequestHandler(AbstractResultDispatcher<T> dispatcher, BoundRelationContextHolder<T> boundRelationContext,
+                                 ActionStatisticsRegistry statisticsRegistry, CoalescingWindowStrategy windowStrategy,
+                                 ActionExecutionEngine executionEngine, ActionResultCache<T> resultCache,
+                                 PollingQueryProperties properties) {
+        PollingQueryProperties.Handoff handoff = properties.getHandoff();
+        this.resultHandoff = new ResultHandoff<>(dispatcher, handoff.getShards(), handoff.getCapacity());
         this.boundRelationContext = boundRelationContext;
+        this.statisticsRegistry = statisticsRegistry;
+        this.windowStrategy = windowStrategy;
+        this.executionEngine = executionEngine;
+        this.resultCache = resultCache;
+        this.scheduledRefresher = new ScheduledRefresher<>(executionEngine.getScheduler(), properties.getScheduledRefresh(),
+                (refreshActionCode, command) -> refreshAction(refreshActionCode, command, command.getParams()));
+        this.recheckIntervalMillis = Math.max(1L, properties.getVersioning().getRecheckInterval().toMillis());
+        dispatcher.setReparkListener(this::scheduleRecheck);
     }
 
     @Override
-    public void registerAction(String actionCode, Command<T> command, Object param) {
-        doGetBindThreadPool(actionCode).submit(() -> {
-            //定义处理结果
-            T rst = null;
-            //本次处理是否被忽略
-            boolean isIgnore = false;
-            //增加睡眠延迟，等待更高的并发 后续考虑基于带有策略的计数器动态生成睡眠时间
-            this.sleepToWaitMoreReq(10L);
-
-            //开始处理查询请求,调用实际查询方法处理
-            Date startTime = new Date();
-            try {
-                if(hasUnProcessData(actionCode, startTime)){
-                    if(log.isTraceEnabled()) {
-                        log.trace("开始处理轮询查询请求：task startTime={}", startTime.getTime());
-                    }
-                    rst = command.execute();
-                }else {
-                    isIgnore = true;
-                    if(log.isTraceEnabled()) {
-                        log.trace("忽略轮询查询请求：task startTime={}, actionCode={}", startTime.getTime(), actionCode);
-                    }
-                }
-            }catch (Exception e){
-                log.error(e.getMessage(), e);
-            }finally {
-                if(!isIgnore) {
-                    if (log.isTraceEnabled()) {
-                        log.trace("将轮询查询请求处理结果放入到队列中：task startTime={}, actionCode={}",
-                                startTime.getTime(), actionCode);
-                    }
-                    rstQueue.offer(new ResultWrapper<T>(startTime, actionCode, rst));
-                }
-            }
-        });
-        if(!isDispatcherStarted.get() && isDispatcherStarted.compareAndSet(false,true)){
-            startDispatchResultThread();
+    public void registerAction(ActionKey actionCode, Command<T> command, Object param) {
+        //记录请求到达，用于计算合并等待时间
+        ActionStatistics statistics = statisticsRegistry.obtain(actionCode);
+        statistics.recordArrival();
+        ACTION_COMMAND_MAP.put(actionCode, command);
+        //动作由定时刷新驱动时，请求等待下一次定时查询的结果
+        if(scheduledRefresher.onRequest(actionCode, command, statistics)){
+            return;
         }
+        //延迟执行，等待更高的并发 等待时间由合并策略根据请求到达速率、查询耗时和延迟预算计算
+        long window = windowStrategy.computeWindowMillis(statistics);
+        statistics.setCoalescingWindowMillis(window);
+        executionEngine.submit(actionCode, window, () -> executeRound(actionCode, command, statistics));
     }
 
-    class DispatchResultThread implements Runnable {
+    @Override
+    public void refreshAction(ActionKey actionCode, Command<T> command, Object param) {
+        //同一动作同时最多一次强制刷新，刷新标记由下一轮查询消费
+        if(refreshRequestedActions.add(actionCode)){
+            ActionStatistics statistics = statisticsRegistry.obtain(actionCode);
+            executionEngine.submit(actionCode, 0L, () -> executeRound(actionCode, command, statistics));
+        }
+    }
 
-        @Override
-        public void run() {
-            while (!(Thread.interrupted())) {
+    /**
+     * 执行一轮查询 没有等待的请求且未要求强制刷新时忽略本轮查询
+     * @param actionCode 动作编码
+     * @param command 查询命令
+     * @param statistics 动作统计信息
+     */
+    private void executeRound(ActionKey actionCode, Command<T> command, ActionStatistics statistics) {
+        //定义处理结果
+        T rst = null;
+        //本次处理是否被忽略
+        boolean isIgnore = false;
+
+        //开始处理查询请求,调用实际查询方法处理 记录本轮查询序号，此前入队的请求都可以使用本轮结果
+        long sequence = boundRelationContext.getCurrentSequence(actionCode);
+        long startTime = System.currentTimeMillis();
+        try {
+            //强制刷新标记在判断前消费，避免被后续没有等待请求的轮次忽略
+            boolean refreshRequested = refreshRequestedActions.remove(actionCode);
+            if(refreshRequested || hasUnProcessData(actionCode, sequence)){
+                if(log.isTraceEnabled()) {
+                    log.trace("开始处理轮询查询请求：task sequence={}, startTime={}", sequence, startTime);
+                }
+                long executeStart = System.nanoTime();
                 try {
-                    ResultWrapper<T> rw = rstQueue.take();
-                    if (log.isTraceEnabled()) {
-                        log.trace("接收到处理完成结果 actionCode:{}, requestTime:{}" + rw.getActionCode(), rw.getStartTime());
-                    }
-                    dispatcher.acceptResult(rw);
-                } catch (InterruptedException e) {
-                    log.error(e.getMessage(), e);
+                    rst = command.execute();
+                } finally {
+                    statistics.recordExecution(System.nanoTime() - executeStart);
+                }
+            }else {
+                isIgnore = true;
+                if(log.isTraceEnabled()) {
+                    log.trace("忽略轮询查询请求：task sequence={}, actionCode={}", sequence, actionCode);
                 }
             }
+        }catch (Exception e){
+            log.error(e.getMessage(), e);
+        }finally {
+            if(!isIgnore) {
+                if (log.isTraceEnabled()) {
+                    log.trace("将轮询查询请求处理结果放入到队列中：task sequence={}, actionCode={}",
+                            sequence, actionCode);
+                }
+                long version = boundRelationContext.resolveResultVersion(actionCode, rst);
+                ResultWrapper<T> resultWrapper = new ResultWrapper<T>(sequence, startTime, version, actionCode, rst);
+                resultCache.put(resultWrapper);
+                resultHandoff.offer(resultWrapper);
+            }
         }
     }
 
-    /**
-     * 启动派发结果处理的守护线程
-     */
-    private void startDispatchResultThread() {
-        Thread thread = new Thread(new DispatchResultThread());
-        thread.setName("pollingCache-dispatchResult-thread");
-        thread.setDaemon(true);
-        thread.setUncaughtExceptionHandler((t, e) -> log.error(t + " throws exception: " + e));
-        log.info("启动轮询查询派发结果线程!");
-        thread.start();
+    @Override
+    public void subscribeAction(ActionKey actionCode, Command<T> command, Object param) {
+        ACTION_COMMAND_MAP.put(actionCode, command);
+        scheduledRefresher.subscribe(actionCode, command);
+    }
+
+    @Override
+    public void unsubscribeAction(ActionKey actionCode) {
+        scheduledRefresher.unsubscribe(actionCode);
     }
 
     /**
-     * 创建线程池执行器
-     * @param actionCode 动作代号
-     * @return 执行器
+     * 请求因结果版本未变化重新入队后，间隔一段时间再次查询 同一动作同时最多安排一次
+     * 动作由定时刷新驱动时由下一次定时查询处理，无需再次安排
+     * @param actionCode 动作编码
      */
-    private AsyncTaskExecutor createThreadPool(String actionCode){
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        //线程名称前缀
-        executor.setThreadNamePrefix(actionCode + "-executor-");
-        //线程创建工厂 匿名内部类实现
-        executor.setThreadFactory(new CustomizableThreadFactory(executor.getThreadNamePrefix()) {
-            @Override
-            public Thread newThread(Runnable runnable) {
-                Thread t = createThread(runnable);
-                //设置子线程异常日志记录
-                t.setUncaughtExceptionHandler((thread, e) -> log.error(thread + " throws exception: " + e, e));
-                return t;
-            }
-        });
-        //定义核心线程数
-        executor.setCorePoolSize(1);
-        executor.setMaxPoolSize(1);
-        executor.setQueueCapacity(2);
-        executor.setKeepAliveSeconds(0);
-        //默认DiscardPolicy
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
-        executor.initialize();
-        return executor;
+    private void scheduleRecheck(ActionKey actionCode) {
+        Command<T> command = ACTION_COMMAND_MAP.get(actionCode);
+        if(command == null || scheduledRefresher.isScheduled(actionCode) || !recheckScheduledActions.add(actionCode)){
+            return;
+        }
+        ActionStatistics statistics = statisticsRegistry.obtain(actionCode);
+        executionEngine.getScheduler().schedule(() -> {
+            recheckScheduledActions.remove(actionCode);
+            executionEngine.submit(actionCode, 0L, () -> executeRound(actionCode, command, statistics));
+        }, recheckIntervalMillis, TimeUnit.MILLISECONDS);
     }
 
-    public AsyncTaskExecutor doGetBindThreadPool(String actionCode){
-        AsyncTaskExecutor executor = ACTION_MAP.get(actionCode);
-        if(executor != null){
-            return executor;
-        }else {
-            ACTION_MAP.putIfAbsent(actionCode, createThreadPool(actionCode));
-            return ACTION_MAP.get(actionCode);
-        }
+    @Override
+    public void onActionEvicted(ActionKey actionCode, Set<ViewKey> viewCodes) {
+        ACTION_COMMAND_MAP.remove(actionCode);
+        refreshRequestedActions.remove(actionCode);
+    }
+
+    @Override
+    public void destroy() {
+        scheduledRefresher.shutdown();
+        resultHandoff.shutdown();
     }
 
     /**
      * 优化查询，查询开始时如果无需要处理的请求，则忽略本次查询操作
      * @param actionCode 动作编码
-     * @param queryTime 查询请求开始时间
+     * @param sequence 查询轮次序号
      * @return 判断是否包含未处理的数据
      */
-    private boolean hasUnProcessData(String actionCode, Date queryTime){
-        Set<String> relationCodeSet = boundRelationContext.getViewsByActionCode(actionCode);
+    private boolean hasUnProcessData(ActionKey actionCode, long sequence){
+        Set<ViewKey> relationCodeSet = boundRelationContext.getViewsByActionCode(actionCode);
         if(CollectionUtils.isEmpty(relationCodeSet)){
             if (log.isTraceEnabled()) {
-                log.trace("查询请求抛弃[未找到关系集合], actionCode:{}, queryTime:{}" + actionCode, queryTime.getTime());
+                log.trace("查询请求抛弃[未找到关系集合], actionCode:{}, sequence:{}", actionCode, sequence);
             }
             return false;
         }
-        for(String viewCode : relationCodeSet) {
-            Queue<BoundResultRequestContextHolder<T>> boundResultQueue =
-                    boundRelationContext.getViewBoundResultQueueByViewCode(viewCode);
+        for(ViewKey viewCode : relationCodeSet) {
+            PendingRequestQueue<T> boundResultQueue = boundRelationContext.getViewBoundResultQueueByViewCode(viewCode);
             if(boundResultQueue != null) {
-                BoundResultRequestContextHolder<T> boundResultRequestHolder = boundResultQueue.peek();
+                //跳过已经结束的请求，避免为超时的请求执行查询
+                BoundResultRequestContextHolder<T> boundResultRequestHolder = boundResultQueue.peekUnfinished();
                 if(boundResultRequestHolder != null) {
-                    if(!boundResultRequestHolder.getReqStartTime().after(queryTime)){
+                    if(boundResultRequestHolder.getSequence() <= sequence){
                         return true;
                     }
                 }
@@ -188,12 +229,4 @@ public class DefaultRequestHandler<T> extends AbstractRequestHandler<T>{
         return false;
     }
 
-    //等待更多请求一同处理
-    private void sleepToWaitMoreReq(long millis){
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException ex){
-            log.error(ex.getMessage(),ex);
-        }
-    }
 }
@@ -0,0 +1,130 @@
+package com.edu.pollingquery.handler;
+
+import com.edu.pollingquery.dispatcher.AbstractResultDispatcher;
+import com.edu.pollingquery.model.ResultWrapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 查询结果交接管道 按动作编码分片，每个分片一个有界环形队列和一个派发线程，派发线程直接加工并派发结果，不再切换线程
+ * 同一动作的结果总是进入同一分片；分片已满时由提交线程直接派发，不丢弃结果，此时结果可能先于队列中的结果派发
+ * 结果的先后由派发者的动作信箱按查询轮次序号保证，序号更小的结果晚到时被忽略
+ *
+ * @author jcb
+ * @since 2021/5/26
+ */
+@Slf4j
+class ResultHandoff<T> {
+
+    private final AbstractResultDispatcher<T> dispatcher;
+
+    private final List<Shard> shards;
+
+    ResultHandoff(AbstractResultDispatcher<T> dispatcher, int shardCount, int capacity) {
+        this.dispatcher = dispatcher;
+        int count = Math.max(1, shardCount);
+        List<Shard> shardList = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            shardList.add(new Shard(i, Math.max(1, capacity)));
+        }
+        this.shards = Collections.unmodifiableList(shardList);
+    }
+
+    /**
+     * 提交查询结果
+     * @param resultWrapper 查询结果
+     */
+    void offer(ResultWrapper<T> resultWrapper) {
+        Shard shard = shards.get(indexFor(resultWrapper));
+        shard.startIfNecessary();
+        if(!shard.queue.offer(resultWrapper)){
+            if(log.isDebugEnabled()){
+                log.debug("结果交接队列已满，由查询线程直接派发：shard={}, actionCode={}, sequence={}",
+                        shard.index, resultWrapper.getActionCode(), resultWrapper.getSequence());
+            }
+            dispatch(resultWrapper);
+        }
+    }
+
+    /**
+     * 停止所有分片的派发线程
+     */
+    void shutdown() {
+        for(Shard shard : shards){
+            shard.stop();
+        }
+    }
+
+    private int indexFor(ResultWrapper<T> resultWrapper) {
+        int h = resultWrapper.getActionCode() == null ? 0 : resultWrapper.getActionCode().hashCode();
+        //扰动高位，避免哈希低位分布不均
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % shards.size();
+    }
+
+    private void dispatch(ResultWrapper<T> rw) {
+        if (log.isTraceEnabled()) {
+            log.trace("接收到处理完成结果 actionCode:{}, sequence:{}", rw.getActionCode(), rw.getSequence());
+        }
+        try {
+            dispatcher.acceptResultInline(rw);
+        } catch (Exception e) {
+            log.error("派发查询结果失败！actionCode:" + rw.getActionCode(), e);
+        }
+    }
+
+    /**
+     * 结果交接分片
+     */
+    private class Shard implements Runnable {
+
+        private final int index;
+
+        private final BlockingQueue<ResultWrapper<T>> queue;
+
+        private final AtomicBoolean started = new AtomicBoolean(false);
+
+        private volatile Thread thread;
+
+        private Shard(int index, int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void startIfNecessary() {
+            if(!started.get() && started.compareAndSet(false, true)){
+                Thread t = new Thread(this);
+                t.setName("pollingQuery-dispatchResult-thread-" + index);
+                t.setDaemon(true);
+                t.setUncaughtExceptionHandler((th, e) -> log.error(th + " throws exception: " + e, e));
+                log.info("启动轮询查询派发结果线程：{}", t.getName());
+                thread = t;
+                t.start();
+            }
+        }
+
+        private void stop() {
+            Thread t = thread;
+            if(t != null){
+                t.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    dispatch(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.edu.pollingquery.handler;
+
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.Command;
+import com.edu.pollingquery.metrics.ActionStatistics;
+import com.edu.pollingquery.model.ActionKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 热点动作定时刷新 配置的动作或请求到达速率超过阈值的动作改为按固定间隔执行查询
+ * 定时刷新期间请求不再触发查询，由下一次定时查询返回结果，后端查询频率与客户端数量无关
+ * 存在订阅时动作始终定时刷新，没有订阅且一段时间内没有新的请求时自动停止定时刷新
+ *
+ * @author jcb
+ * @since 2021/6/2
+ */
+@Slf4j
+class ScheduledRefresher<T> {
+
+    private final Map<ActionKey, RefreshEntry> REFRESH_ENTRY_MAP = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 执行一次刷新查询
+     */
+    private final BiConsumer<ActionKey, Command<T>> refreshAction;
+
+    /**
+     * 固定定时刷新的动作编码（不含参数）
+     */
+    private final Set<String> actions;
+
+    /**
+     * 自动开启定时刷新的请求到达速率阈值（每毫秒请求数），不大于0时不自动开启
+     */
+    private final double hotArrivalRatePerMillis;
+
+    private final long intervalMillis;
+
+    private final long idleTimeoutMillis;
+
+    ScheduledRefresher(ScheduledExecutorService scheduler, PollingQueryProperties.ScheduledRefresh config,
+                       BiConsumer<ActionKey, Command<T>> refreshAction) {
+        this.scheduler = scheduler;
+        this.refreshAction = refreshAction;
+        this.actions = config.getActions();
+        this.hotArrivalRatePerMillis = config.getHotArrivalRate() / 1000D;
+        this.intervalMillis = Math.max(1L, config.getInterval().toMillis());
+        this.idleTimeoutMillis = config.getIdleTimeout().toMillis();
+    }
+
+    /**
+     * 请求到达时调用 动作处于定时刷新时更新请求时间，满足条件时开启定时刷新
+     * @param actionCode 动作编码
+     * @param command 查询命令
+     * @param statistics 动作统计信息
+     * @return 动作由定时刷新驱动时返回true，请求无需触发查询
+     */
+    boolean onRequest(ActionKey actionCode, Command<T> command, ActionStatistics statistics) {
+        RefreshEntry entry = REFRESH_ENTRY_MAP.get(actionCode);
+        if(entry == null){
+            if(!shouldSchedule(actionCode, statistics)){
+                return false;
+            }
+            RefreshEntry created = new RefreshEntry(actionCode, command);
+            entry = REFRESH_ENTRY_MAP.putIfAbsent(actionCode, created);
+            if(entry == null){
+                //开启定时刷新的请求仍然正常触发查询，之后的请求由定时查询返回
+                startRefresh(created);
+                return false;
+            }
+        }
+        synchronized (entry) {
+            if(entry.stopped){
+                return false;
+            }
+            entry.lastRequestTime = System.currentTimeMillis();
+            entry.command = command;
+            return true;
+        }
+    }
+
+    /**
+     * 订阅动作 存在订阅时动作始终定时刷新
+     * @param actionCode 动作编码
+     * @param command 查询命令
+     */
+    void subscribe(ActionKey actionCode, Command<T> command) {
+        while (true) {
+            RefreshEntry entry = REFRESH_ENTRY_MAP.get(actionCode);
+            if(entry == null){
+                RefreshEntry created = new RefreshEntry(actionCode, command);
+                created.subscribers = 1;
+                if(REFRESH_ENTRY_MAP.putIfAbsent(actionCode, created) == null){
+                    startRefresh(created);
+                    return;
+                }
+                continue;
+            }
+            synchronized (entry) {
+                //定时刷新已停止时重新开启
+                if(!entry.stopped){
+                    entry.subscribers++;
+                    entry.lastRequestTime = System.currentTimeMillis();
+                    entry.command = command;
+                    return;
+                }
+            }
+            REFRESH_ENTRY_MAP.remove(actionCode, entry);
+        }
+    }
+
+    /**
+     * 取消订阅动作 没有订阅后按请求情况决定是否停止定时刷新
+     * @param actionCode 动作编码
+     */
+    void unsubscribe(ActionKey actionCode) {
+        RefreshEntry entry = REFRESH_ENTRY_MAP.get(actionCode);
+        if(entry != null){
+            synchronized (entry) {
+                if(entry.subscribers > 0){
+                    entry.subscribers--;
+                    entry.lastRequestTime = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    /**
+     * 动作是否由定时刷新驱动
+     * @param actionCode 动作编码
+     * @return 是否定时刷新
+     */
+    boolean isScheduled(ActionKey actionCode) {
+        return REFRESH_ENTRY_MAP.containsKey(actionCode);
+    }
+
+    /**
+     * 停止所有定时刷新
+     */
+    void shutdown() {
+        for(RefreshEntry entry : REFRESH_ENTRY_MAP.values()){
+            ScheduledFuture<?> future = entry.future;
+            if(future != null){
+                future.cancel(false);
+            }
+        }
+        REFRESH_ENTRY_MAP.clear();
+    }
+
+    private boolean shouldSchedule(ActionKey actionCode, ActionStatistics statistics) {
+        if(actions.contains(actionCode.getCode())){
+            return true;
+        }
+        return hotArrivalRatePerMillis > 0D && statistics.getArrivalRatePerMillis() >= hotArrivalRatePerMillis;
+    }
+
+    private void startRefresh(RefreshEntry entry) {
+        log.info("动作开启定时刷新：actionCode={}, interval={}ms", entry.actionCode, intervalMillis);
+        entry.future = scheduler.scheduleAtFixedRate(() -> refresh(entry), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh(RefreshEntry entry) {
+        Command<T> command;
+        synchronized (entry) {
+            if(entry.subscribers == 0 && System.currentTimeMillis() - entry.lastRequestTime > idleTimeoutMillis){
+                entry.stopped = true;
+                entry.future.cancel(false);
+                REFRESH_ENTRY_MAP.remove(entry.actionCode, entry);
+                log.info("动作长时间没有请求，停止定时刷新：actionCode={}", entry.actionCode);
+                return;
+            }
+            command = entry.command;
+        }
+        try {
+            refreshAction.accept(entry.actionCode, command);
+        }catch (Exception e){
+            log.error("定时刷新动作失败！actionCode:" + entry.actionCode, e);
+        }
+    }
+
+    /**
+     * 动作定时刷新记录 字段通过记录对象锁保护
+     */
+    private class RefreshEntry {
+
+        private final ActionKey actionCode;
+
+        private volatile ScheduledFuture<?> future;
+
+        /**
+         * 最近一次请求时间（毫秒）
+         */
+        private long lastRequestTime;
+
+        /**
+         * 最近一次请求的查询命令
+         */
+        private Command<T> command;
+
+        /**
+         * 订阅数
+         */
+        private int subscribers;
+
+        /**
+         * 定时刷新是否已停止
+         */
+        private boolean stopped;
+
+        private RefreshEntry(ActionKey actionCode, Command<T> command) {
+            this.actionCode = actionCode;
+            this.command = command;
+            this.lastRequestTime = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.edu.pollingquery.handler.window;
+
+import com.edu.pollingquery.metrics.ActionStatistics;
+
+/**
+ * 自适应的请求合并等待策略
+ * 等待时间为延迟预算扣除查询平均耗时后的剩余部分（不超过最大等待时间），
+ * 按请求到达速率预计等待期间到达的请求不足一个时不等待，冷门动作无需为合并付出延迟
+ *
+ * @author jcb
+ * @since 2021/5/21
+ */
+public class AdaptiveCoalescingWindowStrategy implements CoalescingWindowStrategy {
+
+    /**
+     * 最大等待时间（毫秒）
+     */
+    private final long maxWindowMillis;
+
+    /**
+     * 延迟预算（毫秒） 请求等待和查询执行的总耗时期望不超过该值
+     */
+    private final long latencyBudgetMillis;
+
+    public AdaptiveCoalescingWindowStrategy(long maxWindowMillis, long latencyBudgetMillis) {
+        this.maxWindowMillis = maxWindowMillis;
+        this.latencyBudgetMillis = latencyBudgetMillis;
+    }
+
+    @Override
+    public long computeWindowMillis(ActionStatistics statistics) {
+        double latency = Math.max(statistics.getAvgLatencyMillis(), 0D);
+        long window = Math.min(maxWindowMillis, (long) (latencyBudgetMillis - latency));
+        if(window <= 0L){
+            return 0L;
+        }
+        //预计等待期间到达的请求数
+        double expectedArrivals = statistics.getArrivalRatePerMillis() * window;
+        return expectedArrivals < 1D ? 0L : window;
+    }
+}
@@ -0,0 +1,20 @@
+package com.edu.pollingquery.handler.window;
+
+import com.edu.pollingquery.metrics.ActionStatistics;
+
+/**
+ * 请求合并等待策略 决定查询执行前等待更多请求一同处理的时间
+ * 自定义策略声明为Spring Bean即可替换默认策略
+ *
+ * @author jcb
+ * @since 2021/5/21
+ */
+public interface CoalescingWindowStrategy {
+
+    /**
+     * 计算本次查询执行前的等待时间
+     * @param statistics 动作运行统计
+     * @return 等待时间（毫秒），0表示立即执行
+     */
+    long computeWindowMillis(ActionStatistics statistics);
+}
@@ -0,0 +1,23 @@
+package com.edu.pollingquery.handler.window;
+
+import com.edu.pollingquery.metrics.ActionStatistics;
+
+/**
+ * 固定时间的请求合并等待策略
+ *
+ * @author jcb
+ * @since 2021/5/21
+ */
+public class FixedCoalescingWindowStrategy implements CoalescingWindowStrategy {
+
+    private final long windowMillis;
+
+    public FixedCoalescingWindowStrategy(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    @Override
+    public long computeWindowMillis(ActionStatistics statistics) {
+        return windowMillis;
+    }
+}
@@ -0,0 +1,132 @@
+package com.edu.pollingquery.metrics;
+
+import com.edu.pollingquery.model.ActionKey;
+
+/**
+ * 动作运行统计 记录请求到达间隔、查询耗时的指数加权移动平均值以及当前使用的合并等待时间
+ * 统计值在并发更新时允许近似，不影响请求处理的正确性
+ *
+ * @author jcb
+ * @since 2021/5/21
+ */
+public class ActionStatistics {
+
+    /**
+     * 指数加权移动平均的平滑系数
+     */
+    private static final double ALPHA = 0.2D;
+
+    private final ActionKey actionCode;
+
+    /**
+     * 最近一次请求到达时间（纳秒）
+     */
+    private volatile long lastArrivalNanos;
+
+    /**
+     * 请求到达间隔平均值（毫秒），无数据时为负数
+     */
+    private volatile double avgInterArrivalMillis = -1D;
+
+    /**
+     * 查询耗时平均值（毫秒），无数据时为负数
+     */
+    private volatile double avgLatencyMillis = -1D;
+
+    /**
+     * 当前使用的合并等待时间（毫秒）
+     */
+    private volatile long coalescingWindowMillis;
+
+    /**
+     * 请求数
+     */
+    private volatile long requestCount;
+
+    /**
+     * 查询执行次数
+     */
+    private volatile long executionCount;
+
+    public ActionStatistics(ActionKey actionCode) {
+        this.actionCode = actionCode;
+    }
+
+    /**
+     * 记录请求到达
+     */
+    public void recordArrival() {
+        long now = System.nanoTime();
+        long last = lastArrivalNanos;
+        lastArrivalNanos = now;
+        requestCount++;
+        if(last != 0L){
+            avgInterArrivalMillis = ewma(avgInterArrivalMillis, (now - last) / 1_000_000D);
+        }
+    }
+
+    /**
+     * 记录查询耗时
+     * @param latencyNanos 查询耗时（纳秒）
+     */
+    public void recordExecution(long latencyNanos) {
+        executionCount++;
+        avgLatencyMillis = ewma(avgLatencyMillis, latencyNanos / 1_000_000D);
+    }
+
+    private static double ewma(double average, double sample) {
+        return average < 0D ? sample : ALPHA * sample + (1D - ALPHA) * average;
+    }
+
+    public ActionKey getActionCode() {
+        return actionCode;
+    }
+
+    public double getAvgInterArrivalMillis() {
+        return avgInterArrivalMillis;
+    }
+
+    public double getAvgLatencyMillis() {
+        return avgLatencyMillis;
+    }
+
+    /**
+     * 请求到达速率（每毫秒请求数）
+     * @return 到达速率，无数据时返回0
+     */
+    public double getArrivalRatePerMillis() {
+        double interArrival = avgInterArrivalMillis;
+        if(interArrival < 0D){
+            return 0D;
+        }
+        return interArrival == 0D ? Double.MAX_VALUE : 1D / interArrival;
+    }
+
+    public long getCoalescingWindowMillis() {
+        return coalescingWindowMillis;
+    }
+
+    public void setCoalescingWindowMillis(long coalescingWindowMillis) {
+        this.coalescingWindowMillis = coalescingWindowMillis;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getExecutionCount() {
+        return executionCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ActionStatistics{" +
+                "actionCode=" + actionCode +
+                ", avgInterArrivalMillis=" + avgInterArrivalMillis +
+                ", avgLatencyMillis=" + avgLatencyMillis +
+                ", coalescingWindowMillis=" + coalescingWindowMillis +
+                ", requestCount=" + requestCount +
+                ", executionCount=" + executionCount +
+                '}';
+    }
+}
@@ -0,0 +1,47 @@
+package com.edu.pollingquery.metrics;
+
+import com.edu.pollingquery.context.ActionEvictionListener;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ViewKey;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 动作运行统计登记 动作被空闲回收时同步移除统计
+ *
+ * @author jcb
+ * @since 2021/5/21
+ */
+@Component
+public class ActionStatisticsRegistry implements ActionEvictionListener {
+
+    private final Map<ActionKey, ActionStatistics> ACTION_STATISTICS_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 获取动作统计，不存在时创建
+     * @param actionCode 动作编码
+     * @return 动作统计
+     */
+    public ActionStatistics obtain(ActionKey actionCode) {
+        ActionStatistics statistics = ACTION_STATISTICS_MAP.get(actionCode);
+        return statistics != null ? statistics : ACTION_STATISTICS_MAP.computeIfAbsent(actionCode, ActionStatistics::new);
+    }
+
+    public ActionStatistics get(ActionKey actionCode) {
+        return ACTION_STATISTICS_MAP.get(actionCode);
+    }
+
+    public Collection<ActionStatistics> getAll() {
+        return Collections.unmodifiableCollection(ACTION_STATISTICS_MAP.values());
+    }
+
+    @Override
+    public void onActionEvicted(ActionKey actionCode, Set<ViewKey> viewCodes) {
+        ACTION_STATISTICS_MAP.remove(actionCode);
+    }
+}
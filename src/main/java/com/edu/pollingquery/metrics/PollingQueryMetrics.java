@@ -0,0 +1,111 @@
+package com.edu.pollingquery.metrics;
+
+import com.edu.pollingquery.cache.ActionResultCache;
+import com.edu.pollingquery.handler.ActionExecutionEngine;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 轮询查询运行指标 通过JMX暴露，也可以注入后对接其他监控系统
+ *
+ * @author jcb
+ * @since 2021/5/21
+ */
+@Component
+@ManagedResource(objectName = "com.edu.pollingquery:name=pollingQueryMetrics", description = "轮询查询运行指标")
+public class PollingQueryMetrics {
+
+    private final ActionStatisticsRegistry statisticsRegistry;
+
+    private final ActionResultCache<?> resultCache;
+
+    private final ActionExecutionEngine executionEngine;
+
+    public PollingQueryMetrics(ActionStatisticsRegistry statisticsRegistry, ActionResultCache<?> resultCache,
+                               ActionExecutionEngine executionEngine) {
+        this.statisticsRegistry = statisticsRegistry;
+        this.resultCache = resultCache;
+        this.executionEngine = executionEngine;
+    }
+
+    @ManagedAttribute(description = "各动作当前的请求合并等待时间（毫秒）")
+    public Map<String, Long> getCoalescingWindows() {
+        Map<String, Long> windows = new TreeMap<>();
+        for(ActionStatistics statistics : statisticsRegistry.getAll()){
+            windows.put(statistics.getActionCode().toString(), statistics.getCoalescingWindowMillis());
+        }
+        return windows;
+    }
+
+    @ManagedAttribute(description = "各动作查询耗时平均值（毫秒）")
+    public Map<String, Double> getCommandLatencies() {
+        Map<String, Double> latencies = new TreeMap<>();
+        for(ActionStatistics statistics : statisticsRegistry.getAll()){
+            latencies.put(statistics.getActionCode().toString(), statistics.getAvgLatencyMillis());
+        }
+        return latencies;
+    }
+
+    @ManagedAttribute(description = "各动作请求到达速率（每秒请求数）")
+    public Map<String, Double> getArrivalRates() {
+        Map<String, Double> rates = new TreeMap<>();
+        for(ActionStatistics statistics : statisticsRegistry.getAll()){
+            rates.put(statistics.getActionCode().toString(), statistics.getArrivalRatePerMillis() * 1000D);
+        }
+        return rates;
+    }
+
+    @ManagedAttribute(description = "跟踪的动作数量")
+    public int getActionCount() {
+        return statisticsRegistry.getAll().size();
+    }
+
+    @ManagedAttribute(description = "执行中的查询数")
+    public int getExecutingCount() {
+        return executionEngine.getActiveCount();
+    }
+
+    @ManagedAttribute(description = "等待执行线程的查询数")
+    public int getExecutionQueueSize() {
+        return executionEngine.getQueuedCount();
+    }
+
+    @ManagedAttribute(description = "结果缓存命中次数")
+    public long getCacheHitCount() {
+        return resultCache.getHitCount();
+    }
+
+    @ManagedAttribute(description = "结果缓存未命中次数（包括结果已过期）")
+    public long getCacheMissCount() {
+        return resultCache.getMissCount();
+    }
+
+    @ManagedAttribute(description = "结果缓存淘汰次数")
+    public long getCacheEvictionCount() {
+        return resultCache.getEvictionCount();
+    }
+
+    @ManagedAttribute(description = "缓存的动作结果数量")
+    public long getCacheSize() {
+        return resultCache.size();
+    }
+
+    @ManagedAttribute(description = "最近结果（过期可用模式、指定结果版本的请求）命中次数")
+    public long getLatestResultHitCount() {
+        return resultCache.getLatestHitCount();
+    }
+
+    @ManagedAttribute(description = "最近结果（过期可用模式、指定结果版本的请求）未命中次数")
+    public long getLatestResultMissCount() {
+        return resultCache.getLatestMissCount();
+    }
+
+    @ManagedAttribute(description = "保存最近结果的动作数量")
+    public long getLatestResultSize() {
+        return resultCache.getLatestSize();
+    }
+}
@@ -0,0 +1,32 @@
+package com.edu.pollingquery.model;
+
+/**
+ * 动作编码（带参数） 通过{@link #of(String, Object)}获取唯一实例，已存在的编码查找时不创建新对象
+ *
+ * @author jcb
+ * @since 2021/5/10
+ */
+public final class ActionKey extends BoundKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final BoundKeyRegistry<ActionKey> REGISTRY = new BoundKeyRegistry<>(ActionKey::new);
+
+    private ActionKey(String actionCode, Object param) {
+        super(actionCode, param);
+    }
+
+    /**
+     * 获取动作编码
+     * @param actionCode 动作编码（无参数部分）
+     * @param param 请求参数，可以为null
+     * @return 动作编码
+     */
+    public static ActionKey of(String actionCode, Object param){
+        return REGISTRY.obtain(actionCode, param);
+    }
+
+    private Object readResolve() {
+        return REGISTRY.obtain(getCode(), getParam());
+    }
+}
@@ -0,0 +1,115 @@
+package com.edu.pollingquery.model;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 带参数的绑定编码 由基础编码和规范化后的请求参数组成，哈希值在构造时预先计算
+ * 请求参数类型实现了equals和hashCode时直接使用参数对象比较（请保证参数不可变），否则退化为使用参数的toString()比较
+ *
+ * @author jcb
+ * @since 2021/5/10
+ */
+public abstract class BoundKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 编码和参数的分隔符
+     */
+    private static final String CODE_PARAM_SEPARATOR = "::";
+
+    /**
+     * 参数类型是否具有值语义（重写了equals和hashCode）的缓存
+     */
+    private static final Map<Class<?>, Boolean> VALUE_TYPE_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 基础编码（无参数部分）
+     */
+    private final String code;
+
+    /**
+     * 规范化后的请求参数
+     */
+    private final Object param;
+
+    /**
+     * 预先计算的哈希值
+     */
+    private final int hash;
+
+    /**
+     * 日志、线程名称使用的字符串形式 延迟生成
+     */
+    private transient volatile String text;
+
+    protected BoundKey(String code, Object param) {
+        this.code = Objects.requireNonNull(code, "code");
+        this.param = canonicalParam(param);
+        this.hash = 31 * code.hashCode() + Objects.hashCode(this.param);
+    }
+
+    /**
+     * 规范化请求参数
+     * @param param 请求参数
+     * @return 可以作为键使用的参数
+     */
+    static Object canonicalParam(Object param){
+        if(param == null){
+            return null;
+        }
+        return VALUE_TYPE_CACHE.computeIfAbsent(param.getClass(), BoundKey::hasValueSemantics) ? param : param.toString();
+    }
+
+    private static boolean hasValueSemantics(Class<?> paramClass){
+        if(paramClass.isArray()){
+            return false;
+        }
+        try {
+            return paramClass.getMethod("equals", Object.class).getDeclaringClass() != Object.class
+                    && paramClass.getMethod("hashCode").getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public Object getParam() {
+        return param;
+    }
+
+    public boolean hasParam() {
+        return param != null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BoundKey that = (BoundKey) o;
+        return hash == that.hash &&
+                code.equals(that.code) &&
+                Objects.equals(param, that.param);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        String text = this.text;
+        if(text == null){
+            text = param == null ? code : code.concat(CODE_PARAM_SEPARATOR).concat(param.toString());
+            this.text = text;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,59 @@
+package com.edu.pollingquery.model;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+
+/**
+ * 绑定编码注册表 按基础编码和规范化参数查找已有的唯一实例，命中时不创建新的编码对象
+ * 参数没有值语义时查找仍需生成参数的字符串形式；实例通过弱引用保存，不再使用的编码由垃圾回收清理
+ *
+ * @author jcb
+ * @since 2021/6/22
+ */
+final class BoundKeyRegistry<K extends BoundKey> {
+
+    /**
+     * 无参数编码在注册表中使用的占位参数
+     */
+    private static final Object NULL_PARAM = new Object();
+
+    /**
+     * 基础编码与其各参数的编码实例映射 基础编码由配置决定，数量有限
+     */
+    private final Map<String, Cache<Object, K>> KEY_MAP = new ConcurrentHashMap<>();
+
+    private final BiFunction<String, Object, K> factory;
+
+    BoundKeyRegistry(BiFunction<String, Object, K> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * 获取编码的唯一实例
+     * @param code 基础编码
+     * @param param 请求参数，可以为null
+     * @return 编码实例
+     */
+    K obtain(String code, Object param) {
+        Cache<Object, K> keys = KEY_MAP.get(code);
+        if(keys == null){
+            keys = KEY_MAP.computeIfAbsent(code, key -> CacheBuilder.newBuilder().weakValues().build());
+        }
+        Object canonicalParam = BoundKey.canonicalParam(param);
+        Object lookupParam = canonicalParam == null ? NULL_PARAM : canonicalParam;
+        K boundKey = keys.getIfPresent(lookupParam);
+        if(boundKey != null){
+            return boundKey;
+        }
+        try {
+            return keys.get(lookupParam, () -> factory.apply(code, canonicalParam));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
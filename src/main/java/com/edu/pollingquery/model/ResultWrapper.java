@@ -1,7 +1,6 @@
 package com.edu.pollingquery.model;
 
 import java.io.Serializable;
-import java.util.Date;
 
 /**
  * 查询后结果包装
@@ -13,34 +12,69 @@ public class ResultWrapper<T> implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private Date startTime;
+    /**
+     * 查询轮次序号 查询开始时动作的请求序号，序号不大于该值的请求可以使用本次结果
+     */
+    private long sequence;
 
-    private String actionCode;
+    /**
+     * 查询开始时间（毫秒）
+     */
+    private long startTime;
+
+    /**
+     * 结果版本 结果变化时增大，为0时表示未知
+     */
+    private long version;
+
+    private ActionKey actionCode;
 
     private T result;
 
     public ResultWrapper() {
     }
 
-    public ResultWrapper(Date startTime, String actionCode, T result) {
+    public ResultWrapper(long sequence, long startTime, ActionKey actionCode, T result) {
+        this.sequence = sequence;
         this.startTime = startTime;
         this.actionCode = actionCode;
         this.result = result;
     }
 
-    public Date getStartTime() {
+    public ResultWrapper(long sequence, long startTime, long version, ActionKey actionCode, T result) {
+        this(sequence, startTime, actionCode, result);
+        this.version = version;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getStartTime() {
         return startTime;
     }
 
-    public void setStartTime(Date startTime) {
+    public void setStartTime(long startTime) {
         this.startTime = startTime;
     }
 
-    public String getActionCode() {
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public ActionKey getActionCode() {
         return actionCode;
     }
 
-    public void setActionCode(String actionCode) {
+    public void setActionCode(ActionKey actionCode) {
         this.actionCode = actionCode;
     }
 
@@ -0,0 +1,16 @@
+package com.edu.pollingquery.model;
+
+/**
+ * 带版本的查询结果 查询结果实现该接口时直接使用其版本判断结果是否变化，否则比较前后两次结果是否相等
+ *
+ * @author jcb
+ * @since 2021/6/4
+ */
+public interface VersionedResult {
+
+    /**
+     * 结果版本 数据变化时版本增大
+     * @return 版本
+     */
+    long getVersion();
+}
@@ -0,0 +1,32 @@
+package com.edu.pollingquery.model;
+
+/**
+ * 视图编码（带参数） 通过{@link #of(String, Object)}获取唯一实例，已存在的编码查找时不创建新对象
+ *
+ * @author jcb
+ * @since 2021/5/10
+ */
+public final class ViewKey extends BoundKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final BoundKeyRegistry<ViewKey> REGISTRY = new BoundKeyRegistry<>(ViewKey::new);
+
+    private ViewKey(String viewCode, Object param) {
+        super(viewCode, param);
+    }
+
+    /**
+     * 获取视图编码
+     * @param viewCode 视图编码（无参数部分）
+     * @param param 请求参数，可以为null
+     * @return 视图编码
+     */
+    public static ViewKey of(String viewCode, Object param){
+        return REGISTRY.obtain(viewCode, param);
+    }
+
+    private Object readResolve() {
+        return REGISTRY.obtain(getCode(), getParam());
+    }
+}
@@ -0,0 +1,68 @@
+package com.edu.pollingquery.processor;
+
+import com.edu.pollingquery.model.ActionKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 结果加工上下文 每轮结果派发创建一次并传递给所有处理器，线程安全
+ * 处理器通过{@link ResultPostProcessor#createContext(ProcessingContext)}创建的上下文（如过滤规则）在本轮的所有请求之间共享，
+ * 可以在多个线程中同时使用
+ *
+ * @author jcb
+ * @since 2021/6/18
+ */
+public class ProcessingContext {
+
+    /**
+     * 处理器上下文为空时的占位对象
+     */
+    private static final Object NULL_CONTEXT = new Object();
+
+    /**
+     * 查询动作编码，可能为空
+     */
+    private final ActionKey actionCode;
+
+    /**
+     * 查询结果版本，未知时为0
+     */
+    private final long version;
+
+    /**
+     * 处理器与其上下文映射
+     */
+    private final Map<ResultPostProcessor<?>, Object> processorContexts = new ConcurrentHashMap<>();
+
+    public ProcessingContext(ActionKey actionCode, long version) {
+        this.actionCode = actionCode;
+        this.version = version;
+    }
+
+    public ActionKey getActionCode() {
+        return actionCode;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 获取处理器在本轮的上下文 首次获取时由处理器创建，之后复用
+     * @param processor 处理器
+     * @param <C> 上下文类型
+     * @return 处理器上下文
+     */
+    @SuppressWarnings("unchecked")
+    public <C> C getProcessorContext(ResultPostProcessor<?> processor) {
+        Object context = processorContexts.get(processor);
+        if(context == null){
+            context = processorContexts.computeIfAbsent(processor, key -> {
+                Object created = key.createContext(this);
+                return created == null ? NULL_CONTEXT : created;
+            });
+        }
+        return context == NULL_CONTEXT ? null : (C) context;
+    }
+}
@@ -0,0 +1,112 @@
+package com.edu.pollingquery.processor;
+
+import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 结果加工分组标识 标识相同的请求对同一查询结果的加工输出相同，同一轮派发中只加工一次，并用于跨轮复用加工结果和计算增量结果
+ * 默认标识（{@link #ofUserContext}）只包含处理器类型和用户信息，不区分视图；处理器的输出与视图有关时需使用包含视图编码的标识
+ *
+ * @author jcb
+ * @since 2021/6/7
+ */
+public final class ProcessingKey {
+
+    private final String viewCode;
+
+    private final Set<ResultProcessorType> processorTypes;
+
+    private final String userId;
+
+    private final String deptId;
+
+    private final int hash;
+
+    private ProcessingKey(String viewCode, Set<ResultProcessorType> processorTypes, String userId, String deptId) {
+        this.viewCode = viewCode;
+        this.processorTypes = processorTypes;
+        this.userId = userId;
+        this.deptId = deptId;
+        this.hash = Objects.hash(viewCode, processorTypes, userId, deptId);
+    }
+
+    /**
+     * 根据请求生成加工输入标识
+     * @param requestHolder 请求
+     * @return 加工输入标识
+     */
+    public static ProcessingKey of(BoundResultRequestContextHolder<?> requestHolder) {
+        return of(requestHolder.getViewCode(), requestHolder.getSupportProcessorTypes(),
+                requestHolder.getUserId(), requestHolder.getDeptId());
+    }
+
+    /**
+     * 根据请求的处理器类型和用户信息生成加工输入标识，不区分视图
+     * @param requestHolder 请求
+     * @return 加工输入标识
+     */
+    public static ProcessingKey ofUserContext(BoundResultRequestContextHolder<?> requestHolder) {
+        return of(null, requestHolder.getSupportProcessorTypes(), requestHolder.getUserId(), requestHolder.getDeptId());
+    }
+
+    /**
+     * 生成加工输入标识 不参与区分的信息传null
+     * @param viewCode 视图编码
+     * @param types 处理器类型
+     * @param userId 用户编号
+     * @param deptId 部门编号
+     * @return 加工输入标识
+     */
+    public static ProcessingKey of(String viewCode, Set<ResultProcessorType> types, String userId, String deptId) {
+        Set<ResultProcessorType> processorTypes = types == null || types.isEmpty() ?
+                Collections.emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(types));
+        return new ProcessingKey(viewCode, processorTypes, userId, deptId);
+    }
+
+    public String getViewCode() {
+        return viewCode;
+    }
+
+    public Set<ResultProcessorType> getProcessorTypes() {
+        return processorTypes;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getDeptId() {
+        return deptId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProcessingKey that = (ProcessingKey) o;
+        return hash == that.hash &&
+                Objects.equals(viewCode, that.viewCode) &&
+                Objects.equals(processorTypes, that.processorTypes) &&
+                Objects.equals(userId, that.userId) &&
+                Objects.equals(deptId, that.deptId);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessingKey{" +
+                "viewCode='" + viewCode + '\'' +
+                ", processorTypes=" + processorTypes +
+                ", userId='" + userId + '\'' +
+                ", deptId='" + deptId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,21 @@
+package com.edu.pollingquery.processor;
+
+import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+
+/**
+ * 结果加工分组标识提取器 一轮派发中标识相同的请求只加工一次，共享加工结果
+ * 标识需包含处理器加工时依赖的所有请求信息，未配置时按处理器类型、用户和部门分组，不区分视图
+ * 处理器的输出与视图有关时（如按视图过滤），标识必须包含视图编码，例如使用{@link ProcessingKey#of(BoundResultRequestContextHolder)}
+ *
+ * @author jcb
+ * @since 2021/6/21
+ */
+public interface ProcessingKeyExtractor {
+
+    /**
+     * 提取请求的加工分组标识
+     * @param requestHolder 请求
+     * @return 加工分组标识
+     */
+    ProcessingKey extract(BoundResultRequestContextHolder<?> requestHolder);
+}
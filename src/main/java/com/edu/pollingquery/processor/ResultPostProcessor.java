@@ -4,6 +4,8 @@ import com.edu.pollingquery.context.BoundResultRequestContextHolder;
 
 /**
  * 抽象的结果处理器
+ * 处理器可能在多个线程中同时调用，需要共享的初始化数据通过{@link #createContext(ProcessingContext)}创建，
+ * 在{@link #doProcess(BoundResultRequestContextHolder, Object, ProcessingContext)}中通过{@link ProcessingContext#getProcessorContext(ResultPostProcessor)}获取
  *
  * @author jcb
  * @since 2021/1/26
@@ -12,7 +14,42 @@ public interface ResultPostProcessor<T> {
 
     ResultProcessorType getType();
 
+    /**
+     * 加工结果
+     * @param requestHolder 请求
+     * @param handlerResult 待加工结果
+     * @return 加工后的结果
+     */
     T doProcess(BoundResultRequestContextHolder<T> requestHolder, T handlerResult);
 
-    ThreadLocal<Object> initProcessorTypeContext();
+    /**
+     * 加工结果 需要本轮共享上下文的处理器重写该方法，默认调用不带上下文的加工方法
+     * @param requestHolder 请求
+     * @param handlerResult 待加工结果
+     * @param context 本轮加工上下文
+     * @return 加工后的结果
+     */
+    default T doProcess(BoundResultRequestContextHolder<T> requestHolder, T handlerResult, ProcessingContext context) {
+        return doProcess(requestHolder, handlerResult);
+    }
+
+    /**
+     * 创建处理器在一轮加工中共享的上下文，每轮最多调用一次
+     * @param context 本轮加工上下文
+     * @return 处理器上下文，可以为空
+     */
+    default Object createContext(ProcessingContext context) {
+        return null;
+    }
+
+    /**
+     * 初始化线程变量 兼容方式，每次调用加工方法前在执行线程初始化，调用结束后清除
+     * 加工可能在多个线程中并行执行，因此不再每轮只初始化一次，初始化开销较大时请改用{@link #createContext(ProcessingContext)}
+     * @return 线程变量，不需要时返回null
+     * @deprecated 使用{@link #createContext(ProcessingContext)}
+     */
+    @Deprecated
+    default ThreadLocal<Object> initProcessorTypeContext() {
+        return null;
+    }
 }
@@ -1,6 +1,7 @@
 package com.edu.pollingquery.processor.chain;
 
 import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.processor.ProcessingContext;
 
 /**
  * 抽象的结果加工器链 用于过滤可见数据、增加用户个性化数据等
@@ -10,7 +11,31 @@ import com.edu.pollingquery.context.BoundResultRequestContextHolder;
  */
 public abstract class AbstractProcessorChain<T> {
 
-    public abstract T doProcess(BoundResultRequestContextHolder<T> boundResultRequestHolder, T handlerResult);
+    /**
+     * 加工结果 每次调用使用新的加工上下文
+     * @param boundResultRequestHolder 请求
+     * @param handlerResult 待加工结果
+     * @return 加工后的结果
+     */
+    public T doProcess(BoundResultRequestContextHolder<T> boundResultRequestHolder, T handlerResult) {
+        return doProcess(boundResultRequestHolder, handlerResult, new ProcessingContext(null, 0L));
+    }
 
-    public abstract void clearContext();
+    /**
+     * 加工结果
+     * @param boundResultRequestHolder 请求
+     * @param handlerResult 待加工结果
+     * @param context 加工上下文，同一轮的请求共享
+     * @return 加工后的结果
+     */
+    public abstract T doProcess(BoundResultRequestContextHolder<T> boundResultRequestHolder, T handlerResult,
+                                ProcessingContext context);
+
+    /**
+     * 清理上下文 加工上下文随调用传递，线程变量在每次加工后清除，无需再清理
+     * @deprecated 无需调用
+     */
+    @Deprecated
+    public void clearContext() {
+    }
 }
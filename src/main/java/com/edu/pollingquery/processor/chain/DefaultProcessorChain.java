@@ -1,6 +1,7 @@
 package com.edu.pollingquery.processor.chain;
 
 import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.processor.ProcessingContext;
 import com.edu.pollingquery.processor.ResultPostProcessor;
 import com.edu.pollingquery.processor.ResultProcessorType;
 import com.edu.pollingquery.reflection.GenericsUtils;
@@ -9,9 +10,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * 默认的结果加工器 用于过滤可见数据、增加用户个性化数据等
@@ -23,43 +28,136 @@ import java.util.concurrent.ConcurrentHashMap;
 @Component
 public class DefaultProcessorChain<T> extends AbstractProcessorChain<T>{
 
-    private static final Map<ResultProcessorType, ThreadLocal<?>> PROCESSOR_INIT_MAP = new ConcurrentHashMap<>();
+    /**
+     * 处理器类型组合的数量
+     */
+    private static final int PIPELINE_COUNT = 1 << ResultProcessorType.values().length;
 
     private final List<ResultPostProcessor<T>> resultPostProcessors;
 
+    /**
+     * 结果类型与各处理器类型组合（位掩码为下标）的处理器流水线映射
+     */
+    private final Map<Class<?>, AtomicReferenceArray<List<ResultPostProcessor<T>>>> PIPELINE_MAP = new ConcurrentHashMap<>();
+
     public DefaultProcessorChain(@Autowired(required = false) List<ResultPostProcessor<T>> resultPostProcessors) {
         this.resultPostProcessors = resultPostProcessors;
+        //处理器为单例，构造时预先解析处理器支持的结果类型，避免请求处理时反射解析
+        if(resultPostProcessors != null){
+            resultPostProcessors.forEach(processor -> GenericsUtils.getResultPostProcessorType(processor.getClass()));
+        }
     }
 
     @Override
-    public T doProcess(BoundResultRequestContextHolder<T> boundResultRequestHolder, T handlerResult){
+    public T doProcess(BoundResultRequestContextHolder<T> boundResultRequestHolder, T handlerResult,
+                       ProcessingContext context){
         if(boundResultRequestHolder != null && handlerResult != null
                 && !CollectionUtils.isEmpty(resultPostProcessors)){
-            for (ResultPostProcessor<T> postProcessor : resultPostProcessors){
-                try {
-                    if(boundResultRequestHolder.getSupportProcessorTypes() == null ||
-                            !boundResultRequestHolder.getSupportProcessorTypes().contains(postProcessor.getType())){
-                        continue;
-                    }
-                    if(GenericsUtils.checkCompatibleResultPostProcessor(postProcessor, handlerResult)){
-                        if(PROCESSOR_INIT_MAP.get(postProcessor.getType()) == null){
-                            PROCESSOR_INIT_MAP.putIfAbsent(postProcessor.getType(), postProcessor.initProcessorTypeContext());
-                        }
-                        handlerResult = postProcessor.doProcess(boundResultRequestHolder, handlerResult);
-                    }
-                }catch (ClassCastException cce){
-                    log.error("处理器类型适配错误，请检查配置!" + cce.getMessage());
+            int typeMask = toTypeMask(boundResultRequestHolder.getSupportProcessorTypes());
+            if(typeMask == 0){
+                return handlerResult;
+            }
+            Class<?> resultClass = handlerResult.getClass();
+            for (ResultPostProcessor<T> postProcessor : obtainPipeline(typeMask, resultClass)){
+                handlerResult = invoke(postProcessor, boundResultRequestHolder, handlerResult, context);
+                //流水线按加工前的结果类型生成，处理器改变了结果类型时后续处理器逐个按当前结果判断是否适用
+                if(handlerResult == null || handlerResult.getClass() != resultClass){
+                    return doProcessRemaining(boundResultRequestHolder, handlerResult, context, typeMask,
+                            resultPostProcessors.indexOf(postProcessor) + 1);
                 }
             }
         }
         return handlerResult;
     }
 
-    @Override
-    public void clearContext(){
-        if(!PROCESSOR_INIT_MAP.isEmpty()){
-            PROCESSOR_INIT_MAP.values().forEach(ThreadLocal::remove);
-            PROCESSOR_INIT_MAP.clear();
+    /**
+     * 从指定位置开始依次执行适用于当前结果的处理器 每一步都按当前结果类型判断处理器是否适用
+     * @param boundResultRequestHolder 请求
+     * @param handlerResult 当前结果
+     * @param context 本轮加工上下文
+     * @param typeMask 处理器类型位掩码
+     * @param fromIndex 开始执行的处理器下标
+     * @return 加工结果
+     */
+    private T doProcessRemaining(BoundResultRequestContextHolder<T> boundResultRequestHolder, T handlerResult,
+                                 ProcessingContext context, int typeMask, int fromIndex){
+        for(int i = fromIndex; i < resultPostProcessors.size(); i++){
+            ResultPostProcessor<T> postProcessor = resultPostProcessors.get(i);
+            if((typeMask & (1 << postProcessor.getType().ordinal())) != 0
+                    && GenericsUtils.checkCompatibleResultPostProcessor(postProcessor, handlerResult)){
+                handlerResult = invoke(postProcessor, boundResultRequestHolder, handlerResult, context);
+            }
+        }
+        return handlerResult;
+    }
+
+    /**
+     * 执行单个处理器
+     * @param postProcessor 处理器
+     * @param boundResultRequestHolder 请求
+     * @param handlerResult 当前结果
+     * @param context 本轮加工上下文
+     * @return 加工结果，处理器类型不匹配时返回当前结果
+     */
+    private T invoke(ResultPostProcessor<T> postProcessor, BoundResultRequestContextHolder<T> boundResultRequestHolder,
+                     T handlerResult, ProcessingContext context){
+        //兼容线程变量方式的处理器，线程变量在执行线程上每次调用前初始化、调用后清除
+        @SuppressWarnings("deprecation")
+        ThreadLocal<Object> threadLocal = postProcessor.initProcessorTypeContext();
+        try {
+            return postProcessor.doProcess(boundResultRequestHolder, handlerResult, context);
+        }catch (ClassCastException cce){
+            log.error("处理器类型适配错误，请检查配置!" + cce.getMessage());
+            return handlerResult;
+        }finally {
+            if(threadLocal != null){
+                threadLocal.remove();
+            }
+        }
+    }
+
+    /**
+     * 处理器类型集合转换为位掩码
+     * @param processorTypes 处理器类型集合
+     * @return 位掩码
+     */
+    private static int toTypeMask(Set<ResultProcessorType> processorTypes){
+        int typeMask = 0;
+        if(processorTypes != null){
+            for(ResultProcessorType processorType : processorTypes){
+                typeMask |= 1 << processorType.ordinal();
+            }
+        }
+        return typeMask;
+    }
+
+    /**
+     * 获取处理器类型组合和结果类型对应的处理器流水线 首次使用时按处理器顺序筛选并缓存
+     * 流水线只对未改变结果类型的加工过程有效，结果类型改变后由{@link #doProcessRemaining}逐个判断
+     * @param typeMask 处理器类型位掩码
+     * @param resultClass 结果类型
+     * @return 按顺序执行的处理器
+     */
+    private List<ResultPostProcessor<T>> obtainPipeline(int typeMask, Class<?> resultClass){
+        AtomicReferenceArray<List<ResultPostProcessor<T>>> pipelines =
+                PIPELINE_MAP.computeIfAbsent(resultClass, key -> new AtomicReferenceArray<>(PIPELINE_COUNT));
+        List<ResultPostProcessor<T>> pipeline = pipelines.get(typeMask);
+        if(pipeline == null){
+            List<ResultPostProcessor<T>> compiled = new ArrayList<>();
+            for(ResultPostProcessor<T> postProcessor : resultPostProcessors){
+                if((typeMask & (1 << postProcessor.getType().ordinal())) != 0
+                        && GenericsUtils.getResultPostProcessorType(postProcessor.getClass()).isAssignableFrom(resultClass)){
+                    compiled.add(postProcessor);
+                }
+            }
+            pipeline = Collections.unmodifiableList(compiled);
+            if(!pipelines.compareAndSet(typeMask, null, pipeline)){
+                pipeline = pipelines.get(typeMask);
+            }
+            if(log.isDebugEnabled()){
+                log.debug("生成结果加工流水线：resultClass={}, typeMask={}, processors={}", resultClass, typeMask, pipeline);
+            }
         }
+        return pipeline;
     }
 }
@@ -20,6 +20,9 @@ import com.edu.pollingquery.processor.ResultPostProcessor;
 import org.springframework.core.ResolvableType;
 import org.springframework.util.Assert;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Internal utilities for handling generics.
  *
@@ -29,6 +32,16 @@ import org.springframework.util.Assert;
  */
 public final class GenericsUtils {
 
+	/**
+	 * Resolved generic result type per processor class.
+	 */
+	private static final Map<Class<?>, Class<?>> PROCESSOR_GENERIC_TYPE_CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Compatibility per processor class and result class.
+	 */
+	private static final Map<Class<?>, Map<Class<?>, Boolean>> COMPATIBLE_RESULT_TYPE_CACHE = new ConcurrentHashMap<>();
+
 	private GenericsUtils() {
 		super();
 	}
@@ -103,8 +116,34 @@ public final class GenericsUtils {
 	 * @return true if compatible, false otherwise.
 	 */
 	public static boolean checkCompatibleResultPostProcessor(ResultPostProcessor<?> processorInstance, Object processResult) {
-		Class<?> processorGenericType = getParameterType(processorInstance.getClass(), ResultPostProcessor.class, 0);
-		return processResult != null && processorGenericType.isAssignableFrom(processResult.getClass());
+		if (processResult == null) {
+			return false;
+		}
+		Map<Class<?>, Boolean> compatibleResultTypes = COMPATIBLE_RESULT_TYPE_CACHE
+				.computeIfAbsent(processorInstance.getClass(), processorClass -> new ConcurrentHashMap<>());
+		Class<?> resultClass = processResult.getClass();
+		Boolean compatible = compatibleResultTypes.get(resultClass);
+		if (compatible == null) {
+			compatible = getResultPostProcessorType(processorInstance.getClass()).isAssignableFrom(resultClass);
+			compatibleResultTypes.putIfAbsent(resultClass, compatible);
+		}
+		return compatible;
+	}
+
+	/**
+	 * Return the resolved generic type of a ResultPostProcessor class. The type is
+	 * resolved once per processor class and cached.
+	 *
+	 * @param processorClass the processor class.
+	 * @return the generic result type the processor accepts.
+	 */
+	public static Class<?> getResultPostProcessorType(Class<?> processorClass) {
+		Class<?> processorGenericType = PROCESSOR_GENERIC_TYPE_CACHE.get(processorClass);
+		if (processorGenericType == null) {
+			processorGenericType = getParameterType(processorClass, ResultPostProcessor.class, 0);
+			PROCESSOR_GENERIC_TYPE_CACHE.putIfAbsent(processorClass, processorGenericType);
+		}
+		return processorGenericType;
 	}
 
 }
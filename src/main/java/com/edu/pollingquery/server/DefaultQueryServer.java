@@ -1,16 +1,21 @@
 package com.edu.pollingquery.server;
 
+import com.edu.pollingquery.cache.ActionResultCache;
+import com.edu.pollingquery.config.PollingQueryProperties;
 import com.edu.pollingquery.context.BoundRelationSupport;
 import com.edu.pollingquery.context.BoundResultRequestContextHolder;
 import com.edu.pollingquery.context.Command;
+import com.edu.pollingquery.dispatcher.AbstractResultDispatcher;
 import com.edu.pollingquery.handler.AbstractRequestHandler;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ResultWrapper;
+import com.edu.pollingquery.model.ViewKey;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.springframework.web.context.request.async.DeferredResult;
 
-import java.util.Queue;
-
 /**
  * 查询接收器默认实现
  *
@@ -18,6 +23,7 @@ import java.util.Queue;
  * @since 2021/1/22
  */
 @Slf4j
+@Primary
 @Component
 public class DefaultQueryServer<T> extends AbstractQueryServer<T> {
 
@@ -25,9 +31,23 @@ public class DefaultQueryServer<T> extends AbstractQueryServer<T> {
 
     private AbstractRequestHandler<T> handler;
 
-    public DefaultQueryServer(AbstractRequestHandler<T> handler, BoundRelationSupport<T> boundRelationSupport) {
+    private final AbstractResultDispatcher<T> dispatcher;
+
+    private final ActionResultCache<T> resultCache;
+
+    /**
+     * 过期可用模式下结果超过该时间（毫秒）后触发后台刷新
+     */
+    private final long refreshAfterMillis;
+
+    public DefaultQueryServer(AbstractRequestHandler<T> handler, BoundRelationSupport<T> boundRelationSupport,
+                              AbstractResultDispatcher<T> dispatcher, ActionResultCache<T> resultCache,
+                              PollingQueryProperties properties) {
         this.handler = handler;
         this.boundRelationSupport = boundRelationSupport;
+        this.dispatcher = dispatcher;
+        this.resultCache = resultCache;
+        this.refreshAfterMillis = properties.getStaleWhileRevalidate().getRefreshAfter().toMillis();
     }
 
     /**
@@ -36,7 +56,7 @@ public class DefaultQueryServer<T> extends AbstractQueryServer<T> {
      * @throws IllegalArgumentException 请求无效异常
      */
     private void checkRequest(BoundResultRequestContextHolder<T> requestHolder) throws IllegalArgumentException{
-        if(requestHolder == null || requestHolder.getReqStartTime() == null){
+        if(requestHolder == null || requestHolder.getReqStartTimeMillis() <= 0){
             throw new IllegalArgumentException("无效的请求！");
         }
         if(requestHolder.getFunction() == null && requestHolder.getSupplier() == null) {
@@ -77,26 +97,61 @@ public class DefaultQueryServer<T> extends AbstractQueryServer<T> {
             return requestHolder;
         }
 
+        //根据请求参数生成视图编码，本次请求内复用
+        ViewKey viewKey = boundRelationSupport.wrapperViewCodeByParam(viewCode, requestHolder.getParam());
+
         //根据配置项获取视图对应的查询动作
-        String actionCode = boundRelationSupport.obtainOrCreateActionCode(viewCode, requestHolder.getParam());
-        if(StringUtils.isEmpty(actionCode)){
+        ActionKey actionCode = boundRelationSupport.obtainOrCreateActionCode(viewKey);
+        if(actionCode == null){
             requestHolder.setResult(requestHolder.getFunction().apply(requestHolder.getParam()));
             return requestHolder;
         }
 
-        //初始化线程安全的优先级队列
-        Queue<BoundResultRequestContextHolder<T>> boundResultQueue =
-                boundRelationSupport.ObtainViewBoundResultQueue(viewCode, requestHolder.getParam());
+        //以下立即返回的路径不经过入队，需要单独刷新动作活跃时间，否则持续轮询的动作会被空闲回收
+        //客户端指定了已获取的结果版本时，已有更新版本的结果则立即返回，否则入队等待结果变化
+        //该判断先于缓存和过期可用模式，客户端已获取的版本不会再次返回
+        if(requestHolder.getLastSeenVersion() != null){
+            ResultWrapper<T> latestResult = resultCache.getLatest(actionCode);
+            if(latestResult != null && latestResult.getVersion() > 0L && !requestHolder.hasSeenVersion(latestResult.getVersion())
+                    && dispatcher.processAndDispatchResult(requestHolder, latestResult)){
+                boundRelationSupport.touchAction(actionCode);
+                return requestHolder;
+            }
+        }
+
+        //过期可用模式：有最近一轮的结果时立即返回，结果过旧时在后台刷新
+        if(requestHolder.isStaleWhileRevalidate()){
+            ResultWrapper<T> latestResult = resultCache.getLatest(actionCode);
+            if(latestResult != null){
+                if(System.currentTimeMillis() - latestResult.getStartTime() > refreshAfterMillis){
+                    handler.refreshAction(actionCode, buildCommand(requestHolder), requestHolder.getParam());
+                }
+                if(dispatcher.processAndDispatchResult(requestHolder, latestResult)){
+                    boundRelationSupport.touchAction(actionCode);
+                    return requestHolder;
+                }
+            }
+        }
+
+        //缓存结果在视图可以容忍的过期时间内时直接加工返回，无需执行查询
+        ResultWrapper<T> cachedResult = resultCache.getIfFresh(actionCode, viewKey, requestHolder);
+        if(cachedResult != null && dispatcher.processAndDispatchResult(requestHolder, cachedResult)){
+            boundRelationSupport.touchAction(actionCode);
+            if(log.isTraceEnabled()) {
+                log.trace("使用缓存结果返回轮询查询请求：sequence={}, viewCode={}", cachedResult.getSequence(), viewKey);
+            }
+            return requestHolder;
+        }
 
-        //绑定结果到队列中
-        assert boundResultQueue != null;
-        if(!boundResultQueue.offer(requestHolder)){
+        //绑定结果到视图队列中（队列不存在时初始化线程安全的优先级队列）
+        actionCode = boundRelationSupport.bindRequestToView(viewKey, requestHolder);
+        if(actionCode == null){
             requestHolder.setErrorResult(new Exception("注册到队列失败！"));
             return requestHolder;
         }else{
             if(log.isTraceEnabled()) {
-                log.trace("将轮询查询请求放入队列：startTime={}, viewCode={}",
-                        requestHolder.getReqStartTime().getTime(), viewCode);
+                log.trace("将轮询查询请求放入队列：sequence={}, viewCode={}",
+                        requestHolder.getSequence(), viewKey);
             }
         }
 
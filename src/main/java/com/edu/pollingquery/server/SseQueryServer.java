@@ -0,0 +1,244 @@
+package com.edu.pollingquery.server;
+
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.BoundRelationSupport;
+import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.context.Command;
+import com.edu.pollingquery.handler.AbstractRequestHandler;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ViewKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * 推送方式的查询接收器 客户端通过SSE订阅视图，每次结果变化时推送加工后的结果
+ * 订阅复用轮询方式的动作视图绑定关系和结果加工处理：每个订阅持有一个等待结果变化的请求，结果返回后推送并重新登记
+ * 推送在专用的推送线程池中执行，推送的网络IO不占用结果派发线程；订阅的请求不使用缓存结果和过期可用模式，只等待结果变化
+ * 存在订阅时动作按计划定时查询，不再由请求触发
+ *
+ * @author jcb
+ * @since 2021/6/15
+ */
+@Slf4j
+@Component
+public class SseQueryServer<T> extends AbstractQueryServer<T> implements DisposableBean {
+
+    private final AbstractQueryServer<T> queryServer;
+
+    private final AbstractRequestHandler<T> handler;
+
+    private final BoundRelationSupport<T> boundRelationSupport;
+
+    /**
+     * 订阅连接超时时间（毫秒）
+     */
+    private final long emitterTimeoutMillis;
+
+    /**
+     * 推送线程池 每个订阅同时最多一个推送任务
+     */
+    private final ThreadPoolTaskExecutor pushExecutor;
+
+    public SseQueryServer(DefaultQueryServer<T> queryServer, AbstractRequestHandler<T> handler,
+                          BoundRelationSupport<T> boundRelationSupport, PollingQueryProperties properties) {
+        this.queryServer = queryServer;
+        this.handler = handler;
+        this.boundRelationSupport = boundRelationSupport;
+        this.emitterTimeoutMillis = properties.getSse().getTimeout().toMillis();
+        this.pushExecutor = createPushThreadPool(properties.getSse().getPushThreads());
+    }
+
+    /**
+     * 创建推送线程池执行器
+     * @param threads 线程数
+     * @return 执行器
+     */
+    private ThreadPoolTaskExecutor createPushThreadPool(int threads){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        //线程名称前缀
+        executor.setThreadNamePrefix("pollingQuery-sse-push-executor-");
+        //线程创建工厂 匿名内部类实现
+        executor.setThreadFactory(new CustomizableThreadFactory(executor.getThreadNamePrefix()) {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread t = createThread(runnable);
+                //设置子线程异常日志记录
+                t.setUncaughtExceptionHandler((thread, e) -> log.error(thread + " throws exception: " + e, e));
+                return t;
+            }
+        });
+        executor.setDaemon(true);
+        //定义核心线程数 队列长度受订阅数量限制，无需拒绝策略
+        executor.setCorePoolSize(Math.max(1, threads));
+        executor.setMaxPoolSize(Math.max(1, threads));
+        executor.setKeepAliveSeconds(0);
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        pushExecutor.shutdown();
+    }
+
+    /**
+     * 登记查询请求 轮询方式的请求交给默认查询接收器处理
+     * @param requestHolder 请求持有者
+     * @return 异步结果
+     */
+    @Override
+    public DeferredResult<T> registerQueryRequest(BoundResultRequestContextHolder<T> requestHolder) {
+        return queryServer.registerQueryRequest(requestHolder);
+    }
+
+    /**
+     * 订阅视图结果
+     * @param template 订阅请求模板 视图、查询方法、用户信息和处理器类型用于每次登记的请求
+     * @return SSE推送连接
+     * @throws IllegalArgumentException 请求无效异常
+     */
+    public SseEmitter subscribe(BoundResultRequestContextHolder<T> template) throws IllegalArgumentException {
+        if(template == null || StringUtils.isEmpty(template.getViewCode())){
+            throw new IllegalArgumentException("未指定视图，无法订阅！");
+        }
+        if(template.getFunction() == null && template.getSupplier() == null) {
+            throw new IllegalArgumentException("未指定请求处理方法！");
+        }
+        ViewKey viewKey = boundRelationSupport.wrapperViewCodeByParam(template.getViewCode(), template.getParam());
+        ActionKey actionCode = boundRelationSupport.obtainOrCreateActionCode(viewKey);
+        if(actionCode == null){
+            throw new IllegalArgumentException("无法获取视图绑定的查询动作！viewCode:" + viewKey);
+        }
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        Subscription subscription = new Subscription(template, actionCode, emitter);
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+        handler.subscribeAction(actionCode,
+                new Command<T>(template.getFunction(), template.getParam(), template.getSupplier()), template.getParam());
+        if(log.isDebugEnabled()){
+            log.debug("订阅视图结果：viewCode={}, actionCode={}", viewKey, actionCode);
+        }
+        pushExecutor.execute(() -> subscription.next(template.getLastSeenVersion()));
+        return emitter;
+    }
+
+    /**
+     * 视图订阅
+     */
+    private class Subscription {
+
+        private final BoundResultRequestContextHolder<T> template;
+
+        private final ActionKey actionCode;
+
+        private final SseEmitter emitter;
+
+        private volatile boolean closed;
+
+        /**
+         * 当前等待结果的请求
+         */
+        private volatile BoundResultRequestContextHolder<T> pending;
+
+        private Subscription(BoundResultRequestContextHolder<T> template, ActionKey actionCode, SseEmitter emitter) {
+            this.template = template;
+            this.actionCode = actionCode;
+            this.emitter = emitter;
+        }
+
+        /**
+         * 登记下一个等待结果变化的请求
+         * @param lastSeenVersion 已推送的结果版本
+         */
+        private void next(Long lastSeenVersion) {
+            if(closed){
+                return;
+            }
+            BoundResultRequestContextHolder<T> requestHolder = createRequestHolder();
+            requestHolder.setLastSeenVersion(lastSeenVersion);
+            //推送和登记下一个请求交给推送线程，不在派发线程中执行网络IO，也不在结果回调中递归登记
+            requestHolder.setResultHandler(result -> pushExecutor.execute(() -> onResult(requestHolder, result)));
+            pending = requestHolder;
+            queryServer.registerQueryRequest(requestHolder);
+            if(closed){
+                release(requestHolder);
+            }
+        }
+
+        private void onResult(BoundResultRequestContextHolder<T> requestHolder, Object result) {
+            if(closed){
+                return;
+            }
+            if(result instanceof Throwable){
+                emitter.completeWithError((Throwable) result);
+                close();
+                return;
+            }
+            long version = requestHolder.getResultVersion();
+            try {
+                SseEmitter.SseEventBuilder event = SseEmitter.event().name(template.getViewCode());
+                if(version > 0L){
+                    event.id(String.valueOf(version));
+                }
+                emitter.send(result == null ? event.comment("empty") : event.data(result));
+            } catch (IOException | IllegalStateException e) {
+                if(log.isDebugEnabled()){
+                    log.debug("推送视图结果失败，取消订阅：actionCode={}, {}", actionCode, e.getMessage());
+                }
+                close();
+                return;
+            }
+            next(version > 0L ? version : null);
+        }
+
+        private void close() {
+            if(closed){
+                return;
+            }
+            closed = true;
+            handler.unsubscribeAction(actionCode);
+            BoundResultRequestContextHolder<T> requestHolder = pending;
+            if(requestHolder != null){
+                release(requestHolder);
+            }
+        }
+
+        /**
+         * 结束等待中的请求，使其不再参与查询和派发
+         * @param requestHolder 请求
+         */
+        private void release(BoundResultRequestContextHolder<T> requestHolder) {
+            if(!requestHolder.isSetOrExpired()){
+                requestHolder.setResult(null);
+            }
+        }
+
+        /**
+         * 根据订阅模板创建请求
+         * @return 请求
+         */
+        private BoundResultRequestContextHolder<T> createRequestHolder() {
+            BoundResultRequestContextHolder<T> requestHolder = template.getFunction() != null ?
+                    new BoundResultRequestContextHolder<T>(template.getViewCode(), new Date(), template.getUserId(),
+                            template.getDeptId(), template.getFunction(), template.getParam(), null,
+                            template.getSupportProcessorTypes()) :
+                    new BoundResultRequestContextHolder<T>(template.getViewCode(), new Date(), template.getUserId(),
+                            template.getDeptId(), template.getSupplier(), null, template.getSupportProcessorTypes());
+            requestHolder.setParam(template.getParam());
+            //订阅只等待结果变化，不使用缓存结果（请求的配置优先于视图配置）
+            requestHolder.setMaxStaleness(0L);
+            requestHolder.setDeltaMode(template.isDeltaMode());
+            return requestHolder;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.edu.pollingquery.delta;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 测试增量结果的生成 覆盖新增、修改、删除、重复元素和顺序变化
+ *
+ * @author jcb
+ * @since 2021/6/23
+ */
+public class ResultDeltaTest {
+
+    /**
+     * 以冒号前的部分作为主键
+     */
+    private static final DeltaKeyExtractor KEY_EXTRACTOR = element -> ((String) element).split(":")[0];
+
+    public static void main(String[] args) {
+        //新增元素追加到末尾
+        ResultDelta<String> delta = ResultDelta.between(list("a", "b"), list("a", "b", "c"), 1L, 2L, null);
+        check(delta, list("c"), list(), list());
+
+        //按主键修改
+        delta = ResultDelta.between(list("a:1", "b:1"), list("a:1", "b:2"), 1L, 2L, KEY_EXTRACTOR);
+        check(delta, list(), list("b:2"), list());
+
+        //删除元素
+        delta = ResultDelta.between(list("a", "b", "c"), list("a", "c"), 1L, 2L, null);
+        check(delta, list(), list(), list("b"));
+
+        //同时新增、修改和删除
+        delta = ResultDelta.between(list("a:1", "b:1", "c:1"), list("a:2", "c:1", "d:1"), 1L, 2L, KEY_EXTRACTOR);
+        check(delta, list("d:1"), list("a:2"), list("b"));
+
+        //重复元素无法用增量表示
+        expectNull(ResultDelta.between(list("a", "a"), list("a"), 1L, 2L, null), "previous duplicates");
+        expectNull(ResultDelta.between(list("a"), list("a", "a"), 1L, 2L, null), "current duplicates");
+        expectNull(ResultDelta.between(list("a:1"), list("a:1", "a:2"), 1L, 2L, KEY_EXTRACTOR), "duplicate keys");
+
+        //顺序变化、新增元素不在末尾时无法用增量表示
+        expectNull(ResultDelta.between(list("a", "b"), list("b", "a"), 1L, 2L, null), "reorder");
+        expectNull(ResultDelta.between(list("a", "b"), list("a", "c", "b"), 1L, 2L, null), "insert in middle");
+
+        //无序集合不比较顺序
+        delta = ResultDelta.between(Collections.singleton("a"), Collections.singleton("b"), 1L, 2L, null);
+        check(delta, list("b"), list(), list("a"));
+
+        System.out.println("ResultDelta checks passed");
+    }
+
+    private static List<String> list(String... elements) {
+        return Arrays.asList(elements);
+    }
+
+    private static void check(ResultDelta<String> delta, List<String> inserted, List<String> updated, List<?> deleted) {
+        if(delta == null || !Objects.equals(delta.getInserted(), inserted) || !Objects.equals(delta.getUpdated(), updated)
+                || !Objects.equals(delta.getDeleted(), deleted)){
+            throw new IllegalStateException("增量结果错误：" + delta + ", expected inserted=" + inserted
+                    + ", updated=" + updated + ", deleted=" + deleted);
+        }
+    }
+
+    private static void expectNull(ResultDelta<String> delta, String scenario) {
+        if(delta != null){
+            throw new IllegalStateException("无法用增量表示时应返回null：" + scenario + ", delta=" + delta);
+        }
+    }
+}
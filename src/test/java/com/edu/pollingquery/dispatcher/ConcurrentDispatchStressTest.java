@@ -0,0 +1,126 @@
+package com.edu.pollingquery.dispatcher;
+
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.BoundRelationContextHolder;
+import com.edu.pollingquery.context.BoundRelationSupport;
+import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ResultWrapper;
+import com.edu.pollingquery.model.ViewKey;
+import com.edu.pollingquery.processor.chain.DefaultProcessorChain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试多个动作同时完成查询时结果派发的吞吐量 派发时各视图独立取出请求，吞吐量应随并发完成的动作数增长
+ * 同时校验每个入队的请求都恰好收到一次结果
+ *
+ * @author jcb
+ * @since 2021/5/19
+ */
+public class ConcurrentDispatchStressTest {
+
+    private static final int ROUNDS = 2000;
+
+    private static final int REQUESTS_PER_ROUND = 50;
+
+    /**
+     * 等待结果发送完成的最长时间
+     */
+    private static final long DELIVERY_TIMEOUT_MILLIS = 10_000L;
+
+    public static void main(String[] args) throws InterruptedException {
+        BoundRelationContextHolder<String> boundRelationContext = new BoundRelationContextHolder<>();
+        BoundRelationSupport<String> boundRelationSupport = new BoundRelationSupport<>(boundRelationContext);
+        DefaultResultDispatcher<String> dispatcher =
+                new DefaultResultDispatcher<>(new DefaultProcessorChain<>(null), boundRelationContext, new PollingQueryProperties());
+        int maxActions = Runtime.getRuntime().availableProcessors() * 2;
+        //预热
+        run(boundRelationSupport, boundRelationContext, dispatcher, 2, "WARM_UP");
+        System.out.println("actions\tholders\telapsed(ms)\tholders/ms");
+        try {
+            for(int actions = 1; actions <= maxActions; actions *= 2){
+                run(boundRelationSupport, boundRelationContext, dispatcher, actions, "STRESS");
+            }
+        } finally {
+            dispatcher.destroy();
+        }
+    }
+
+    private static void run(BoundRelationSupport<String> boundRelationSupport,
+                            BoundRelationContextHolder<String> boundRelationContext,
+                            DefaultResultDispatcher<String> dispatcher, int actions, String viewPrefix)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(actions);
+        AtomicLong dispatched = new AtomicLong();
+        //每个请求收到结果的次数
+        AtomicIntegerArray delivered = new AtomicIntegerArray(actions * ROUNDS * REQUESTS_PER_ROUND);
+        AtomicLong deliveredTotal = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < actions; i++){
+            ViewKey viewKey = ViewKey.of(viewPrefix + "_" + actions, i);
+            int holderBase = i * ROUNDS * REQUESTS_PER_ROUND;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        ActionKey actionCode = null;
+                        for (int r = 0; r < REQUESTS_PER_ROUND; r++) {
+                            int holderIndex = holderBase + round * REQUESTS_PER_ROUND + r;
+                            BoundResultRequestContextHolder<String> requestHolder =
+                                    new BoundResultRequestContextHolder<>(viewKey.getCode(), () -> "", null, null);
+                            requestHolder.setResultHandler(result -> {
+                                delivered.incrementAndGet(holderIndex);
+                                deliveredTotal.incrementAndGet();
+                            });
+                            actionCode = boundRelationSupport.bindRequestToView(viewKey, requestHolder);
+                        }
+                        long sequence = boundRelationContext.getCurrentSequence(actionCode);
+                        dispatched.addAndGet(dispatcher.processAndDispatchReturnResult(
+                                new ResultWrapper<>(sequence, System.currentTimeMillis(), actionCode, "RESULT")));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finish.countDown();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        finish.await();
+        long elapsed = Math.max(1L, (System.nanoTime() - begin) / 1_000_000L);
+        if(!"WARM_UP".equals(viewPrefix)){
+            System.out.println(actions + "\t" + dispatched.get() + "\t" + elapsed + "\t" + dispatched.get() / elapsed);
+        }
+        verify(delivered, deliveredTotal, dispatched.get(), actions);
+    }
+
+    /**
+     * 校验每个请求都恰好收到一次结果 结果由视图的发送线程池异步设置，等待发送完成后再校验
+     */
+    private static void verify(AtomicIntegerArray delivered, AtomicLong deliveredTotal, long dispatched, int actions)
+            throws InterruptedException {
+        int expected = delivered.length();
+        if(dispatched != expected){
+            throw new IllegalStateException("派发数量错误：actions=" + actions + ", expected=" + expected + ", dispatched=" + dispatched);
+        }
+        long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT_MILLIS;
+        while(deliveredTotal.get() < expected && System.currentTimeMillis() < deadline){
+            Thread.sleep(10L);
+        }
+        for(int i = 0; i < expected; i++){
+            if(delivered.get(i) != 1){
+                throw new IllegalStateException("请求收到结果的次数错误：actions=" + actions + ", holder=" + i
+                        + ", delivered=" + delivered.get(i));
+            }
+        }
+    }
+}
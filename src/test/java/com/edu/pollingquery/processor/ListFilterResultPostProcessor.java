@@ -16,8 +16,6 @@ import java.util.List;
 @Component
 public class ListFilterResultPostProcessor implements ResultPostProcessor<List<String>> {
 
-    private ThreadLocal<Object> threadLocal = new ThreadLocal<>();
-
     @Override
     public ResultProcessorType getType() {
         return ResultProcessorType.FILTER;
@@ -25,14 +23,20 @@ public class ListFilterResultPostProcessor implements ResultPostProcessor<List<S
 
     @Override
     public List<String> doProcess(BoundResultRequestContextHolder<List<String>> resultHolder, List<String> handlerResult) {
-        System.out.println("filter by list with rule:" + threadLocal.get());
+        return doProcess(resultHolder, handlerResult, new ProcessingContext(null, 0L));
+    }
+
+    @Override
+    public List<String> doProcess(BoundResultRequestContextHolder<List<String>> resultHolder, List<String> handlerResult,
+                                  ProcessingContext context) {
+        FilterInfo filterInfo = context.getProcessorContext(this);
+        System.out.println("filter by list with rule:" + filterInfo);
         return handlerResult;
     }
 
     @Override
-    public ThreadLocal<Object> initProcessorTypeContext() {
-        threadLocal.set(new FilterInfo("rule:13567"));
-        return threadLocal;
+    public Object createContext(ProcessingContext context) {
+        return new FilterInfo("rule:13567");
     }
 
     static class FilterInfo{
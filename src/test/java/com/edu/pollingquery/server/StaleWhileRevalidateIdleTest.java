@@ -0,0 +1,114 @@
+package com.edu.pollingquery.server;
+
+import com.edu.pollingquery.cache.ActionResultCache;
+import com.edu.pollingquery.config.PollingQueryProperties;
+import com.edu.pollingquery.context.ActionEvictionListener;
+import com.edu.pollingquery.context.BoundRelationContextHolder;
+import com.edu.pollingquery.context.BoundRelationSupport;
+import com.edu.pollingquery.context.BoundResultRequestContextHolder;
+import com.edu.pollingquery.context.Command;
+import com.edu.pollingquery.context.IdleActionEvictor;
+import com.edu.pollingquery.dispatcher.DefaultResultDispatcher;
+import com.edu.pollingquery.handler.AbstractRequestHandler;
+import com.edu.pollingquery.model.ActionKey;
+import com.edu.pollingquery.model.ResultWrapper;
+import com.edu.pollingquery.model.ViewKey;
+import com.edu.pollingquery.processor.chain.DefaultProcessorChain;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试过期可用模式的持续轮询不会被空闲回收 请求直接使用最近结果返回、不入队时同样需要刷新动作活跃时间
+ * 轮询时间超过空闲时间后动作仍然存在，停止轮询超过空闲时间后动作被回收
+ *
+ * @author jcb
+ * @since 2021/6/24
+ */
+public class StaleWhileRevalidateIdleTest {
+
+    private static final String VIEW_CODE = "SWR_IDLE";
+
+    private static final long IDLE_TIMEOUT_MILLIS = 300L;
+
+    private static final long POLL_INTERVAL_MILLIS = 50L;
+
+    public static void main(String[] args) throws InterruptedException {
+        PollingQueryProperties properties = new PollingQueryProperties();
+        properties.getEviction().setIdleTimeout(Duration.ofMillis(IDLE_TIMEOUT_MILLIS));
+        BoundRelationContextHolder<String> boundRelationContext = new BoundRelationContextHolder<>();
+        BoundRelationSupport<String> boundRelationSupport = new BoundRelationSupport<>(boundRelationContext);
+        DefaultResultDispatcher<String> dispatcher =
+                new DefaultResultDispatcher<>(new DefaultProcessorChain<>(null), boundRelationContext, properties);
+        ActionResultCache<String> resultCache = new ActionResultCache<>(properties);
+        List<ActionEvictionListener> evictionListeners = Arrays.asList(resultCache, dispatcher);
+        IdleActionEvictor evictor = new IdleActionEvictor(boundRelationContext, evictionListeners, properties);
+        AtomicInteger refreshCount = new AtomicInteger();
+        DefaultQueryServer<String> queryServer = new DefaultQueryServer<>(new AbstractRequestHandler<String>() {
+            @Override
+            public void registerAction(ActionKey actionCode, Command<String> func, Object param) {
+            }
+
+            @Override
+            public void refreshAction(ActionKey actionCode, Command<String> func, Object param) {
+                refreshCount.incrementAndGet();
+            }
+
+            @Override
+            public void subscribeAction(ActionKey actionCode, Command<String> func, Object param) {
+            }
+
+            @Override
+            public void unsubscribeAction(ActionKey actionCode) {
+            }
+        }, boundRelationSupport, dispatcher, resultCache, properties);
+        try {
+            //建立绑定关系并准备最近一轮的结果
+            ActionKey actionCode = boundRelationSupport.obtainOrCreateActionCode(ViewKey.of(VIEW_CODE, null));
+            resultCache.getLatest(actionCode);
+            resultCache.put(new ResultWrapper<>(1L, System.currentTimeMillis(), actionCode, "RESULT"));
+
+            //持续轮询超过空闲时间，每次请求都应立即返回且动作不被回收
+            long pollUntil = System.currentTimeMillis() + IDLE_TIMEOUT_MILLIS * 3;
+            int polls = 0;
+            while(System.currentTimeMillis() < pollUntil){
+                poll(queryServer, ++polls);
+                if(evictor.evictIdleActions() != 0){
+                    throw new IllegalStateException("持续轮询的动作被空闲回收：polls=" + polls);
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+            if(resultCache.getLatest(actionCode) == null){
+                throw new IllegalStateException("持续轮询的动作最近结果丢失");
+            }
+
+            //停止轮询超过空闲时间后动作应被回收
+            Thread.sleep(IDLE_TIMEOUT_MILLIS + POLL_INTERVAL_MILLIS);
+            if(evictor.evictIdleActions() != 1){
+                throw new IllegalStateException("停止轮询后动作未被回收");
+            }
+            System.out.println("polls=" + polls + ", refresh=" + refreshCount.get() + ", evicted after idle");
+        } finally {
+            dispatcher.destroy();
+        }
+    }
+
+    /**
+     * 发起一次过期可用模式的请求，校验请求使用最近结果立即返回
+     */
+    private static void poll(DefaultQueryServer<String> queryServer, int polls) throws InterruptedException {
+        BoundResultRequestContextHolder<String> requestHolder =
+                new BoundResultRequestContextHolder<>(VIEW_CODE, () -> "", null, null);
+        requestHolder.setStaleWhileRevalidate(true);
+        CountDownLatch delivered = new CountDownLatch(1);
+        requestHolder.setResultHandler(result -> delivered.countDown());
+        queryServer.registerQueryRequest(requestHolder);
+        if(!delivered.await(1L, TimeUnit.SECONDS)){
+            throw new IllegalStateException("过期可用模式请求未立即返回：polls=" + polls);
+        }
+    }
+}